@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.mapcolorui;
+
+import javastraw.reader.expected.ExpectedValueFunction;
+import javastraw.reader.type.MatrixType;
+import javastraw.reader.type.NormalizationHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders one tile with HeatmapRenderer for each display mode, over synthetic maps of several densities.
+ * Run with "ant benchmark"; JMH options can be passed with -Dbenchmark.args, e.g. -Dbenchmark.args="-p density=0.1".
+ * <p>
+ * renderTile measures a repaint of a tile whose color scale is already known, renderTileWithNewColorScale
+ * the first tile of a view, which also computes the color scale from the blocks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Thread)
+public class HeatmapRendererBenchmark {
+
+    private static final int TILE_WIDTH = 500;
+    private static final int BIN_SIZE = 10000;
+    private static final int BIN_COUNT = 4 * TILE_WIDTH;
+
+    @Param({"OBSERVED", "LOG", "OE", "LOGEO", "EXPECTED", "CONTROL", "LOGC", "OECTRL", "RATIO", "LOGRATIO", "OERATIO",
+            "VS", "LOGVS", "OEVS", "PEARSON", "PEARSONVS"})
+    public String displayOption;
+
+    @Param({"0.01", "0.1", "0.5"})
+    public double density;
+
+    // 0 renders a tile on the diagonal, where the records are densest
+    @Param({"0", "1"})
+    public int tileColumn;
+
+    private MatrixType matrixType;
+    private SyntheticZoomData zd, controlZd;
+    private ExpectedValueFunction expectedValues, controlExpectedValues;
+    private ColorScaleHandler colorScaleHandler;
+    private BufferedImage image;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        matrixType = MatrixType.valueOf(displayOption);
+        zd = new SyntheticZoomData(1, BIN_SIZE, BIN_COUNT, density, 1);
+        controlZd = new SyntheticZoomData(1, BIN_SIZE, BIN_COUNT, density, 2);
+        expectedValues = zd.createExpectedValues();
+        controlExpectedValues = controlZd.createExpectedValues();
+        colorScaleHandler = new ColorScaleHandler();
+        image = RasterHeatmapRenderer.createTileImage(TILE_WIDTH, TILE_WIDTH);
+        // generate the blocks and the color scale outside of the measurements
+        render();
+    }
+
+    @Benchmark
+    public BufferedImage renderTile() {
+        return render();
+    }
+
+    @Benchmark
+    public BufferedImage renderTileWithNewColorScale() {
+        colorScaleHandler.reset();
+        colorScaleHandler.getPearsonColorScale().resetValues(
+                zd.getColorScaleKey(matrixType, NormalizationHandler.NONE, NormalizationHandler.NONE));
+        return render();
+    }
+
+    private BufferedImage render() {
+        HeatmapRenderer renderer = new RasterHeatmapRenderer(image, colorScaleHandler);
+        renderer.render(tileColumn * TILE_WIDTH, 0, TILE_WIDTH, TILE_WIDTH, zd, controlZd, matrixType,
+                NormalizationHandler.NONE, NormalizationHandler.NONE, expectedValues, controlExpectedValues, true);
+        return image;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.mapcolorui;
+
+import javastraw.matrices.BasicMatrix;
+import javastraw.reader.basics.Chromosome;
+import javastraw.reader.block.Block;
+import javastraw.reader.block.ContactRecord;
+import javastraw.reader.expected.ExpectedValueFunction;
+import javastraw.reader.expected.ExpectedValueFunctionImpl;
+import javastraw.reader.mzd.MatrixZoomData;
+import javastraw.reader.type.HiCZoom;
+import javastraw.reader.type.NormalizationHandler;
+import javastraw.reader.type.NormalizationType;
+import juicebox.data.CompactBlock;
+import juicebox.data.GUIMatrixZoomData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Intra-chromosomal zoom data generated in memory for the benchmarks, so they need neither a .hic file nor
+ * the network. A given fraction of the bins above the diagonal hold a contact, with counts decaying with the
+ * distance from the diagonal like a real map. Blocks are generated on first use from a per-block seed, so
+ * every run sees the same records, and are held as CompactBlocks as the RawBlockCache holds them.
+ */
+public class SyntheticZoomData extends GUIMatrixZoomData {
+
+    static final int BLOCK_BIN_COUNT = 500;
+    private static final float DIAGONAL_COUNT = 1000;
+
+    private final int binCount;
+    private final int blockColumnCount;
+    private final double density;
+    private final long seed;
+    private final Map<Integer, Block> blocks = new ConcurrentHashMap<>();
+
+    /**
+     * @param density fraction of the bins above the diagonal holding a contact, between 0 and 1
+     */
+    public SyntheticZoomData(int chrIndex, int binSize, int binCount, double density, long seed) {
+        super(createMatrixZoomData(chrIndex, binSize, binCount));
+        this.binCount = binCount;
+        this.blockColumnCount = getBlockColumnCount(binCount);
+        this.density = density;
+        this.seed = seed;
+    }
+
+    private static int getBlockColumnCount(int binCount) {
+        return (binCount + BLOCK_BIN_COUNT - 1) / BLOCK_BIN_COUNT;
+    }
+
+    private static MatrixZoomData createMatrixZoomData(int chrIndex, int binSize, int binCount) {
+        Chromosome chromosome = new Chromosome(chrIndex, "chr" + chrIndex, (long) binSize * binCount);
+        // the reader is never used, every block is served from memory
+        return new MatrixZoomData(chromosome, chromosome, new HiCZoom(HiCZoom.HiCUnit.BP, binSize),
+                BLOCK_BIN_COUNT, getBlockColumnCount(binCount), null, null, null);
+    }
+
+    @Override
+    public List<Block> getNormalizedBlocksOverlapping(int binX1, int binY1, int binX2, int binY2,
+                                                      final NormalizationType no, boolean fillUnderDiagonal) {
+        List<Block> overlappingBlocks = new ArrayList<>();
+        int col1 = Math.max(0, binX1 / BLOCK_BIN_COUNT);
+        int col2 = Math.min(blockColumnCount - 1, binX2 / BLOCK_BIN_COUNT);
+        int row1 = Math.max(0, binY1 / BLOCK_BIN_COUNT);
+        int row2 = Math.min(blockColumnCount - 1, binY2 / BLOCK_BIN_COUNT);
+        for (int col = col1; col <= col2; col++) {
+            // only the upper triangle (binX <= binY) is stored, as in a .hic file
+            for (int row = Math.max(row1, col); row <= row2; row++) {
+                final int blockRow = row, blockCol = col;
+                int blockNumber = row * blockColumnCount + col;
+                overlappingBlocks.add(blocks.computeIfAbsent(blockNumber, number -> generateBlock(number, blockRow, blockCol)));
+            }
+        }
+        return overlappingBlocks;
+    }
+
+    private Block generateBlock(int blockNumber, int row, int col) {
+        Random random = new Random(seed + blockNumber);
+        List<ContactRecord> records = new ArrayList<>();
+        int binXEnd = Math.min(binCount, (col + 1) * BLOCK_BIN_COUNT);
+        int binYEnd = Math.min(binCount, (row + 1) * BLOCK_BIN_COUNT);
+        for (int binX = col * BLOCK_BIN_COUNT; binX < binXEnd; binX++) {
+            for (int binY = Math.max(binX, row * BLOCK_BIN_COUNT); binY < binYEnd; binY++) {
+                if (random.nextDouble() < density) {
+                    float counts = getExpectedCount(binY - binX) * (0.5f + random.nextFloat());
+                    records.add(new ContactRecord(binX, binY, counts));
+                }
+            }
+        }
+        String uniqueID = "synthetic_" + seed + "_" + blockNumber;
+        return CompactBlock.fromBlock(new Block(blockNumber, records, uniqueID), uniqueID);
+    }
+
+    private static float getExpectedCount(int distance) {
+        return DIAGONAL_COUNT / (1 + distance);
+    }
+
+    /**
+     * @return the expected counts matching the generated records
+     */
+    public ExpectedValueFunction createExpectedValues() {
+        double[] expectedValues = new double[binCount];
+        for (int distance = 0; distance < binCount; distance++) {
+            expectedValues[distance] = density * getExpectedCount(distance);
+        }
+        Map<Integer, Double> normalizationFactors = new HashMap<>();
+        normalizationFactors.put(getChr1Idx(), 1.0);
+        return new ExpectedValueFunctionImpl(NormalizationHandler.NONE, HiCZoom.HiCUnit.BP, getZoom().getBinSize(),
+                expectedValues, normalizationFactors);
+    }
+
+    @Override
+    public double getAverageCount() {
+        return density * DIAGONAL_COUNT / 10;
+    }
+
+    /**
+     * A checkerboard of compartments rather than an actual correlation of the records, which would cost far more
+     * to compute than to render
+     */
+    @Override
+    public BasicMatrix getPearsons(ExpectedValueFunction df) {
+        return new BasicMatrix() {
+            @Override
+            public float getEntry(int row, int col) {
+                return (float) (Math.sin(row / 40.0) * Math.sin(col / 40.0));
+            }
+
+            @Override
+            public int getRowDimension() {
+                return binCount;
+            }
+
+            @Override
+            public int getColumnDimension() {
+                return binCount;
+            }
+
+            @Override
+            public float getLowerValue() {
+                return -1;
+            }
+
+            @Override
+            public float getUpperValue() {
+                return 1;
+            }
+
+            @Override
+            public void setEntry(int row, int col, float value) {
+                throw new UnsupportedOperationException("Synthetic Pearson's matrix is read only");
+            }
+        };
+    }
+}
@@ -24,6 +24,8 @@
 
 package juicebox;
 
+import juicebox.mapcolorui.PixelPooling;
+
 import java.awt.*;
 import java.io.File;
 import java.util.ArrayList;
@@ -54,12 +56,20 @@ public class JBGlobals {
     public static int MAX_EIGENVECTOR_ZOOM = 100000;
     public static double hicMapScale = 1;
     public static boolean useCache = true;
+    public static int numTileRenderThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 16));
+    public static boolean prefetchTiles = true;
+    public static boolean useDiskTileCache = false;
+    public static long diskTileCacheMaxBytes = 1024L * 1024 * 1024;
+    public static long tileCacheMaxBytes = Math.min(256L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8);
+    public static long blockCacheMaxBytes = Math.min(1024L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4);
     public static boolean guiIsCurrentlyActive = false;
     public static boolean printVerboseComments = false;
     public static boolean slideshowEnabled = false;
     public static boolean splitModeEnabled = false;
     public static boolean translationInProgress = false;
     public static boolean displayTiles = false;
+    public static boolean showPerformanceHUD = false;
+    public static PixelPooling pixelPooling = PixelPooling.NONE;
     public static boolean isDarkulaModeEnabled = false;
     public static boolean phasing = false;
     public static boolean noSortInPhasing = false;
@@ -0,0 +1,176 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data;
+
+import javastraw.reader.block.Block;
+import javastraw.reader.block.ContactRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A block holding its contacts in parallel arrays instead of one ContactRecord object per contact, which
+ * takes about a third of the memory and leaves nothing for the garbage collector to trace. The contacts are
+ * sorted by binX, then binY. Blocks are cached in this form; the renderer, the tooltip and the color scale
+ * iterate the arrays directly, other code gets ContactRecords built on every call to getContactRecords().
+ */
+public class CompactBlock extends Block {
+
+    // array headers and fields of the block itself
+    private static final long OVERHEAD_BYTES = 96;
+    private final int[] binX;
+    private final int[] binY;
+    private final float[] counts;
+
+    /**
+     * The arrays must be of equal length, sorted by binX then binY, and are not copied
+     */
+    CompactBlock(int number, String uniqueID, int[] binX, int[] binY, float[] counts) {
+        super(number, new ArrayList<>(0), uniqueID);
+        this.binX = binX;
+        this.binY = binY;
+        this.counts = counts;
+    }
+
+    /**
+     * Compact form of a block that is only iterated, e.g. one that javastraw loaded and cached itself
+     *
+     * @return the block itself if it is already compact
+     */
+    public static CompactBlock asCompact(Block block) {
+        return fromBlock(block, null);
+    }
+
+    /**
+     * @param uniqueID the block key of the new block
+     * @return the block itself if it is already compact
+     */
+    public static CompactBlock fromBlock(Block block, String uniqueID) {
+        if (block instanceof CompactBlock) {
+            return (CompactBlock) block;
+        }
+        Collection<ContactRecord> records = block.getContactRecords();
+        int size = records == null ? 0 : records.size();
+        int[] binX = new int[size];
+        int[] binY = new int[size];
+        float[] counts = new float[size];
+        int i = 0;
+        boolean isSorted = true;
+        if (records != null) {
+            for (ContactRecord rec : records) {
+                binX[i] = rec.getBinX();
+                binY[i] = rec.getBinY();
+                counts[i] = rec.getCounts();
+                if (i > 0 && compare(binX[i - 1], binY[i - 1], binX[i], binY[i]) > 0) {
+                    isSorted = false;
+                }
+                i++;
+            }
+        }
+        if (!isSorted) {
+            sort(binX, binY, counts);
+        }
+        return new CompactBlock(block.getNumber(), uniqueID, binX, binY, counts);
+    }
+
+    private static int compare(int binX1, int binY1, int binX2, int binY2) {
+        return binX1 != binX2 ? Integer.compare(binX1, binX2) : Integer.compare(binY1, binY2);
+    }
+
+    private static void sort(int[] binX, int[] binY, float[] counts) {
+        Integer[] order = new Integer[binX.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> compare(binX[a], binY[a], binX[b], binY[b]));
+        int[] sortedX = new int[binX.length];
+        int[] sortedY = new int[binY.length];
+        float[] sortedCounts = new float[counts.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedX[i] = binX[order[i]];
+            sortedY[i] = binY[order[i]];
+            sortedCounts[i] = counts[order[i]];
+        }
+        System.arraycopy(sortedX, 0, binX, 0, binX.length);
+        System.arraycopy(sortedY, 0, binY, 0, binY.length);
+        System.arraycopy(sortedCounts, 0, counts, 0, counts.length);
+    }
+
+    public int size() {
+        return counts.length;
+    }
+
+    public int getBinX(int i) {
+        return binX[i];
+    }
+
+    public int getBinY(int i) {
+        return binY[i];
+    }
+
+    public float getCounts(int i) {
+        return counts[i];
+    }
+
+    /**
+     * Binary search over the sorted contacts
+     *
+     * @return the index of the contact of the given bins, or -1 if the block has none
+     */
+    public int indexOf(int binX, int binY) {
+        int low = 0;
+        int high = counts.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(this.binX[mid], this.binY[mid], binX, binY);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public long getSizeInBytes() {
+        return OVERHEAD_BYTES + 12L * counts.length;
+    }
+
+    /**
+     * Built anew on every call, prefer iterating the arrays
+     */
+    @Override
+    public List<ContactRecord> getContactRecords() {
+        List<ContactRecord> records = new ArrayList<>(counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            records.add(new ContactRecord(binX[i], binY[i], counts[i]));
+        }
+        return records;
+    }
+}
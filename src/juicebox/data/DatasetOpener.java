@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data;
+
+import javastraw.reader.Dataset;
+import javastraw.reader.DatasetReader;
+import javastraw.reader.DatasetReaderFactory;
+import juicebox.JBGlobals;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Reads .hic files, optionally ahead of time on a background thread, so that e.g. the main and control maps of a
+ * saved state are read at the same time rather than one after the other. Reading covers the header and the footer;
+ * block indices are read per chromosome on first use, and normalization vectors and expected values are loaded
+ * on first use or warmed up by {@link HiC#warmUpInBackground()}.
+ */
+public class DatasetOpener {
+
+    private static final ExecutorService openExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "Dataset open");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Map<String, Future<Dataset>> datasetsBeingOpened = new ConcurrentHashMap<>();
+
+    /**
+     * Start reading the file now; a later {@link #open(String)} of the same file picks up the result
+     */
+    public static void openInBackground(String file) {
+        datasetsBeingOpened.computeIfAbsent(file, f -> openExecutor.submit(() -> read(f)));
+    }
+
+    /**
+     * @return the dataset, or null if the file is not a recognized .hic file
+     */
+    public static Dataset open(String file) throws IOException {
+        Future<Dataset> opening = datasetsBeingOpened.remove(file);
+        if (opening == null) {
+            return read(file);
+        }
+        try {
+            return opening.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while opening " + file, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Error opening " + file, cause);
+        }
+    }
+
+    /**
+     * Stop a background read that will not be picked up, so the file and its result are not held on to
+     */
+    public static void discard(String file) {
+        Future<Dataset> opening = datasetsBeingOpened.remove(file);
+        if (opening != null) {
+            opening.cancel(true);
+        }
+    }
+
+    private static Dataset read(String file) throws IOException {
+        DatasetReader reader = DatasetReaderFactory.getReaderForFile(file, JBGlobals.useCache, true);
+        if (reader == null) return null;
+        return reader.read();
+    }
+}
@@ -24,13 +24,15 @@
 
 package juicebox.data;
 
+import javastraw.reader.Dataset;
 import javastraw.reader.block.Block;
 import javastraw.reader.block.BlockModifier;
-import javastraw.reader.block.ContactRecord;
 import javastraw.reader.expected.ExpectedValueFunction;
 import javastraw.reader.mzd.MatrixZoomData;
+import javastraw.reader.norm.NormalizationVector;
 import javastraw.reader.type.HiCZoom;
 import javastraw.reader.type.MatrixType;
+import javastraw.reader.type.NormalizationHandler;
 import javastraw.reader.type.NormalizationType;
 import javastraw.tools.HiCFileTools;
 import juicebox.JBGlobals;
@@ -45,16 +47,34 @@ import org.apache.commons.math3.linear.RealMatrix;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static javastraw.reader.mzd.BlockLoader.actuallyLoadGivenBlocks;
 
 public class GUIMatrixZoomData extends MatrixZoomData {
 
+    // raw blocks are converted as they are loaded, so javastraw caches the compact form as well
+    private static final BlockModifier RAW_BLOCK = (block, key, binSize, chr1, chr2) -> CompactBlock.fromBlock(block, key);
+    // point lookups into blocks that javastraw loaded itself, kept for as long as javastraw caches the block
+    private static final Map<Block, CompactBlock> pointIndices = Collections.synchronizedMap(new WeakHashMap<>());
+    // concurrent requests for the same raw block or normalization vector share one load
+    private static final SingleFlight<RawBlockCache.Key, CompactBlock> rawBlockLoads = new SingleFlight<>();
+    private static final SingleFlight<List<Object>, NormalizationVector> normalizationVectorLoads = new SingleFlight<>();
     private final HiCGridAxis xGridAxis;
     private final HiCGridAxis yGridAxis;
+    private final Dataset dataset;
 
     public GUIMatrixZoomData(MatrixZoomData mzd) {
+        this(mzd, null);
+    }
+
+    /**
+     * @param dataset the dataset the zoom data belongs to, whose normalization vectors are applied to the
+     *                raw blocks in memory; if null, javastraw reads the normalized blocks itself
+     */
+    public GUIMatrixZoomData(MatrixZoomData mzd, Dataset dataset) {
         super(mzd);
+        this.dataset = dataset;
 
         long correctedBinCount = mzd.getCorrectedBinCount();
         HiCZoom zoom = mzd.getZoom();
@@ -79,12 +99,21 @@ public class GUIMatrixZoomData extends MatrixZoomData {
         return yGridAxis;
     }
 
-    public String getColorScaleKey(MatrixType displayOption, NormalizationType n1, NormalizationType n2) {
-        return getKey() + displayOption + "_" + n1 + "_" + n2;
+    public ColorScaleKey getColorScaleKey(MatrixType displayOption, NormalizationType n1, NormalizationType n2) {
+        return new ColorScaleKey(getChr1().getIndex(), getChr2().getIndex(), getZoom().getUnit(), getZoom().getBinSize(),
+                displayOption, n1, n2);
+    }
+
+    public TileKey getTileKey(int tileRow, int tileColumn, MatrixType displayOption) {
+        return getTileKey(tileRow, tileColumn, displayOption, 1);
     }
 
-    public String getTileKey(int tileRow, int tileColumn, MatrixType displayOption) {
-        return getKey() + "_" + tileRow + "_" + tileColumn + "_ " + displayOption;
+    /**
+     * @param poolFactor bins along each side of a pixel of the tile image, 1 for one pixel per bin
+     */
+    public TileKey getTileKey(int tileRow, int tileColumn, MatrixType displayOption, int poolFactor) {
+        return new TileKey(getChr1().getIndex(), getChr2().getIndex(), getZoom().getUnit(), getZoom().getBinSize(),
+                tileRow, tileColumn, displayOption, poolFactor);
     }
 
     public RealMatrix extractLocalBoundedRegion(int binXStart, int binXEnd, int binYStart, int binYEnd, int matrixWidth,
@@ -97,9 +126,181 @@ public class GUIMatrixZoomData extends MatrixZoomData {
                                                       boolean fillUnderDiagonal) {
         if (SuperAdapter.assemblyModeCurrentlyActive) {
             return addNormalizedBlocksToListAssembly(binX1, binY1, binX2, binY2, no);
-        } else {
-            return super.getNormalizedBlocksOverlapping(binX1, binY1, binX2, binY2, no, fillUnderDiagonal);
+        } else if (usesRawBlocks() && !fillUnderDiagonal) {
+            List<Block> blocks = getNormalizedBlocksFromRawBlocks(binX1, binY1, binX2, binY2, no);
+            if (blocks != null) {
+                return blocks;
+            }
+        }
+        return super.getNormalizedBlocksOverlapping(binX1, binY1, binX2, binY2, no, fillUnderDiagonal);
+    }
+
+    /**
+     * Whether blocks are read raw through the RawBlockCache and normalized in memory
+     */
+    private boolean usesRawBlocks() {
+        return dataset != null && JBGlobals.useCache && !SuperAdapter.assemblyModeCurrentlyActive;
+    }
+
+    /**
+     * Loads the normalization vectors of both chromosomes ahead of their first use
+     */
+    public void warmUpNormalizationVectors(NormalizationType no) {
+        if (dataset == null || isRaw(no)) return;
+        getNormalizationVectorData(getChr1().getIndex(), no);
+        if (getChr1() != getChr2()) {
+            getNormalizationVectorData(getChr2().getIndex(), no);
+        }
+    }
+
+    private static boolean isRaw(NormalizationType no) {
+        return no == null || no.equals(NormalizationHandler.NONE);
+    }
+
+    /**
+     * Applies the normalization vectors to the raw blocks of the region, so that switching normalizations
+     * reuses the blocks that have been read already
+     *
+     * @return null if the normalization vectors are not available
+     */
+    private List<Block> getNormalizedBlocksFromRawBlocks(int binX1, int binY1, int binX2, int binY2,
+                                                         NormalizationType no) {
+        if (isRaw(no)) {
+            return getRawBlocksOverlapping(binX1, binY1, binX2, binY2);
+        }
+
+        double[] nv1 = getNormalizationVectorData(getChr1().getIndex(), no);
+        double[] nv2 = getChr1() == getChr2() ? nv1 : getNormalizationVectorData(getChr2().getIndex(), no);
+        if (nv1 == null || nv2 == null) return null;
+
+        // the normalized blocks are cached too, so that every paint gets the same block objects and the
+        // per-block color scale sketches keep hitting
+        RawBlockCache rawBlockCache = RawBlockCache.getInstance();
+        final long cacheGeneration = rawBlockCache.getGeneration();
+        String zdKey = getKey();
+        List<Block> rawBlocks = getRawBlocksOverlapping(binX1, binY1, binX2, binY2);
+        List<Block> blocks = new ArrayList<>(rawBlocks.size());
+        for (Block rawBlock : rawBlocks) {
+            RawBlockCache.Key key = new RawBlockCache.Key(dataset, zdKey, rawBlock.getNumber(), no);
+            CompactBlock normalized = rawBlockCache.get(key);
+            if (normalized == null) {
+                normalized = normalizeBlock(rawBlock, no, nv1, nv2);
+                rawBlockCache.put(key, normalized, cacheGeneration);
+            }
+            blocks.add(normalized);
+        }
+        return blocks;
+    }
+
+    private double[] getNormalizationVectorData(int chrIdx, NormalizationType no) {
+        final HiCZoom hicZoom = getZoom();
+        NormalizationVector nv = normalizationVectorLoads.load(Arrays.asList(dataset, chrIdx, hicZoom, no),
+                () -> dataset.getNormalizationVector(chrIdx, hicZoom, no));
+        if (nv == null) return null;
+        return nv.getData().getValues().get(0);
+    }
+
+    private CompactBlock normalizeBlock(Block rawBlock, NormalizationType no, double[] nv1, double[] nv2) {
+        CompactBlock raw = CompactBlock.asCompact(rawBlock);
+        int size = raw.size();
+        int[] binXs = new int[size];
+        int[] binYs = new int[size];
+        float[] counts = new float[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            int binX = raw.getBinX(i);
+            int binY = raw.getBinY(i);
+            if (binX >= nv1.length || binY >= nv2.length) continue;
+            float normalized = (float) (raw.getCounts(i) / (nv1[binX] * nv2[binY]));
+            if (!Float.isNaN(normalized)) {
+                binXs[n] = binX;
+                binYs[n] = binY;
+                counts[n] = normalized;
+                n++;
+            }
+        }
+        if (n < size) {
+            binXs = Arrays.copyOf(binXs, n);
+            binYs = Arrays.copyOf(binYs, n);
+            counts = Arrays.copyOf(counts, n);
+        }
+        return new CompactBlock(raw.getNumber(), getBlockKey(raw.getNumber(), no), binXs, binYs, counts);
+    }
+
+    /**
+     * The raw blocks overlapping the region, from the RawBlockCache where possible. A block that another
+     * thread is already loading is waited for rather than read again.
+     */
+    private List<Block> getRawBlocksOverlapping(int binX1, int binY1, int binX2, int binY2) {
+        final int binSize = getZoom().getBinSize();
+        long[] genomePosition = new long[]{
+                (long) binX1 * binSize, (long) binX2 * binSize, (long) binY1 * binSize, (long) binY2 * binSize
+        };
+
+        RawBlockCache rawBlockCache = RawBlockCache.getInstance();
+        final long cacheGeneration = rawBlockCache.getGeneration();
+        String zdKey = getKey();
+        List<Block> blockList = new ArrayList<>();
+        Map<Integer, RawBlockCache.Key> blocksToLoad = new HashMap<>();
+        List<CompletableFuture<CompactBlock>> blocksLoadingElsewhere = new ArrayList<>();
+        for (int blockNumber : new HashSet<>(getBlockNumbersForRegionFromGenomePosition(genomePosition))) {
+            RawBlockCache.Key key = new RawBlockCache.Key(dataset, zdKey, blockNumber);
+            CompactBlock b = rawBlockCache.get(key);
+            if (b == null) {
+                CompletableFuture<CompactBlock> pending = rawBlockLoads.begin(key);
+                if (pending != null) {
+                    blocksLoadingElsewhere.add(pending);
+                    continue;
+                }
+                // the block may have been cached between the lookup and the claim
+                b = rawBlockCache.peek(key);
+                if (b == null) {
+                    blocksToLoad.put(blockNumber, key);
+                    continue;
+                }
+                rawBlockLoads.complete(key, b);
+            }
+            blockList.add(b);
         }
+
+        // the claimed blocks are all loaded before waiting on any other thread, so no two threads wait on each other
+        if (!blocksToLoad.isEmpty()) {
+            try {
+                final List<Block> loadedBlocks = Collections.synchronizedList(new ArrayList<>());
+                actuallyLoadGivenBlocks(loadedBlocks, new ArrayList<>(blocksToLoad.keySet()), NormalizationHandler.NONE,
+                        RAW_BLOCK, zdKey, chr1, chr2, zoom, blockCache, reader, blockIndices);
+                for (Block b : loadedBlocks) {
+                    String blockKey = getBlockKey(b.getNumber(), NormalizationHandler.NONE);
+                    // the RawBlockCache owns raw blocks, so they are not also held by the unbounded javastraw cache
+                    blockCache.remove(blockKey);
+                    CompactBlock compact = CompactBlock.fromBlock(b, blockKey);
+                    RawBlockCache.Key key = blocksToLoad.remove(compact.getNumber());
+                    if (key != null) {
+                        rawBlockCache.put(key, compact, cacheGeneration);
+                        rawBlockLoads.complete(key, compact);
+                    }
+                    blockList.add(compact);
+                }
+            } catch (RuntimeException | Error e) {
+                // e.g. running out of memory decompressing a block; the claims must not be left pending forever
+                for (RawBlockCache.Key key : blocksToLoad.values()) {
+                    rawBlockLoads.fail(key, e);
+                }
+                throw e;
+            }
+            // blocks without any contacts are not returned
+            for (RawBlockCache.Key key : blocksToLoad.values()) {
+                rawBlockLoads.complete(key, null);
+            }
+        }
+
+        for (CompletableFuture<CompactBlock> pending : blocksLoadingElsewhere) {
+            CompactBlock b = SingleFlight.await(pending);
+            if (b != null) {
+                blockList.add(b);
+            }
+        }
+        return new ArrayList<>(new HashSet<>(blockList));
     }
 
     protected List<Block> addNormalizedBlocksToListAssembly(int binX1, int binY1, int binX2, int binY2,
@@ -220,16 +421,43 @@ public class GUIMatrixZoomData extends MatrixZoomData {
             }
         }
 
-        List<Block> blocks = getNormalizedBlocksOverlapping(binX, binY, binX, binY, normalizationType, false);
+        // the raw count is looked up and normalized alone, rather than normalizing the whole block
+        List<Block> blocks = null;
+        double denominator = 1;
+        if (usesRawBlocks()) {
+            if (isRaw(normalizationType)) {
+                blocks = getRawBlocksOverlapping(binX, binY, binX, binY);
+            } else {
+                double[] nv1 = getNormalizationVectorData(getChr1().getIndex(), normalizationType);
+                double[] nv2 = getChr1() == getChr2() ? nv1 : getNormalizationVectorData(getChr2().getIndex(), normalizationType);
+                if (nv1 != null && nv2 != null) {
+                    if (binX >= nv1.length || binY >= nv2.length) return 0;
+                    denominator = nv1[binX] * nv2[binY];
+                    blocks = getRawBlocksOverlapping(binX, binY, binX, binY);
+                }
+            }
+        }
+        if (blocks == null) {
+            blocks = getNormalizedBlocksOverlapping(binX, binY, binX, binY, normalizationType, false);
+        }
         if (blocks == null) return 0;
         for (Block b : blocks) {
-            for (ContactRecord rec : b.getContactRecords()) {
-                if (rec.getBinX() == binX && rec.getBinY() == binY) {
-                    return rec.getCounts();
-                }
+            CompactBlock compact = getPointIndex(b);
+            int i = compact.indexOf(binX, binY);
+            if (i >= 0) {
+                float value = (float) (compact.getCounts(i) / denominator);
+                // javastraw drops the records that normalize to NaN
+                return Float.isNaN(value) ? 0 : value;
             }
         }
         // No record found for this bin
         return 0;
     }
+
+    private static CompactBlock getPointIndex(Block b) {
+        if (b instanceof CompactBlock) {
+            return (CompactBlock) b;
+        }
+        return pointIndices.computeIfAbsent(b, CompactBlock::asCompact);
+    }
 }
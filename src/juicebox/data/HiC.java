@@ -48,7 +48,11 @@ import java.awt.*;
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 /**
  * This is the "model" class for the HiC viewer.
@@ -60,7 +64,15 @@ public class HiC {
     private final String eigString = "Eigenvector";
     private final String ctrlEigString = "Ctrl_Eigenvector";
     private final ZoomActionTracker zoomActionTracker = new ZoomActionTracker();
+    private final ViewGeneration zoomRequestGeneration = new ViewGeneration();
+    private final ViewGeneration warmUpGeneration = new ViewGeneration();
     private final List<Feature2D> highlightedFeatures = new ArrayList<>();
+    private static final SingleFlight<List<Object>, ExpectedValueFunction> expectedValueLoads = new SingleFlight<>();
+    private static final ExecutorService warmUpExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Dataset warm-up");
+        thread.setDaemon(true);
+        return thread;
+    });
     private double scaleFactor;
     private String xPosition;
     private String yPosition;
@@ -106,6 +118,8 @@ public class HiC {
     }
 
     public void reset() {
+        warmUpGeneration.advance();
+        RawBlockCache.getInstance().clear();
         dataset = null;
         controlDataset = null;
         displayOption = MatrixType.OBSERVED;
@@ -265,6 +279,10 @@ public class HiC {
     }
 
     public void setDataset(Dataset dataset) {
+        if (this.dataset != null && this.dataset != dataset) {
+            RawBlockCache.getInstance().clear(this.dataset);
+        }
+        warmUpGeneration.advance();
         this.dataset = dataset;
     }
 
@@ -273,10 +291,15 @@ public class HiC {
     }
 
     public void setControlDataset(Dataset controlDataset) {
+        if (this.controlDataset != null && this.controlDataset != controlDataset) {
+            RawBlockCache.getInstance().clear(this.controlDataset);
+        }
+        warmUpGeneration.advance();
         this.controlDataset = controlDataset;
     }
 
     public void setSelectedChromosomes(Chromosome chrX, Chromosome chrY) {
+        warmUpGeneration.advance();
         this.xContext = new Context(chrX);
         this.yContext = new Context(chrY);
         refreshEigenvectorTrackIfExists();
@@ -293,7 +316,7 @@ public class HiC {
         } else if (currentZoom == null) {
             throw new NullPointerException("Uninitialized zoom");
         } else {
-            return new GUIMatrixZoomData(matrix.getZoomData(currentZoom));
+            return new GUIMatrixZoomData(matrix.getZoomData(currentZoom), dataset);
         }
     }
 
@@ -302,8 +325,29 @@ public class HiC {
         if (matrix == null || currentZoom == null) {
             return null;
         } else {
-            return new GUIMatrixZoomData(matrix.getZoomData(currentZoom));
+            return new GUIMatrixZoomData(matrix.getZoomData(currentZoom), controlDataset);
+        }
+    }
+
+    /**
+     * Zoom data for the current chromosomes at a zoom other than the one in view, e.g. for prefetching
+     *
+     * @return null if unavailable
+     */
+    public GUIMatrixZoomData getZd(HiCZoom zoom) {
+        Matrix matrix = getMatrix();
+        if (matrix == null || zoom == null || matrix.getZoomData(zoom) == null) {
+            return null;
+        }
+        return new GUIMatrixZoomData(matrix.getZoomData(zoom), dataset);
+    }
+
+    public GUIMatrixZoomData getControlZd(HiCZoom zoom) {
+        Matrix matrix = getControlMatrix();
+        if (matrix == null || zoom == null || matrix.getZoomData(zoom) == null) {
+            return null;
         }
+        return new GUIMatrixZoomData(matrix.getZoomData(zoom), controlDataset);
     }
 
     public Matrix getControlMatrix() {
@@ -542,6 +586,7 @@ public class HiC {
         NormalizationType option = dataset.getNormalizationHandler().getNormTypeFromString(label);
         if (this.obsNormalizationType != option) {
             this.obsNormalizationType = option;
+            warmUpGeneration.advance();
             setNormalizationTypeChanged();
         }
     }
@@ -554,6 +599,7 @@ public class HiC {
         NormalizationType option = dataset.getNormalizationHandler().getNormTypeFromString(label);
         if (this.ctrlNormalizationType != option) {
             this.ctrlNormalizationType = option;
+            warmUpGeneration.advance();
             setNormalizationTypeChanged();
         }
     }
@@ -570,15 +616,107 @@ public class HiC {
 
     public ExpectedValueFunction getExpectedValues() {
         if (dataset == null) return null;
-        return dataset.getExpectedValues(currentZoom, obsNormalizationType, false);
+        return loadExpectedValues(dataset, currentZoom, obsNormalizationType);
     }
 
     public ExpectedValueFunction getExpectedControlValues() {
         if (controlDataset == null) return null;
-        return controlDataset.getExpectedValues(currentZoom, ctrlNormalizationType, false);
+        return loadExpectedValues(controlDataset, currentZoom, ctrlNormalizationType);
+    }
+
+    public ExpectedValueFunction getExpectedValues(HiCZoom zoom) {
+        if (dataset == null) return null;
+        return loadExpectedValues(dataset, zoom, obsNormalizationType);
+    }
+
+    public ExpectedValueFunction getExpectedControlValues(HiCZoom zoom) {
+        if (controlDataset == null) return null;
+        return loadExpectedValues(controlDataset, zoom, ctrlNormalizationType);
+    }
+
+    /**
+     * Captures the dataset and normalization in use, but leaves loading the expected values to whoever calls the
+     * supplier, e.g. a tile worker, since the first load of them reads the file
+     */
+    public Supplier<ExpectedValueFunction> getExpectedValuesLoader(HiCZoom zoom) {
+        final Dataset ds = dataset;
+        final NormalizationType no = obsNormalizationType;
+        return () -> ds == null ? null : loadExpectedValues(ds, zoom, no);
+    }
+
+    public Supplier<ExpectedValueFunction> getExpectedControlValuesLoader(HiCZoom zoom) {
+        final Dataset ds = controlDataset;
+        final NormalizationType no = ctrlNormalizationType;
+        return () -> ds == null ? null : loadExpectedValues(ds, zoom, no);
+    }
+
+    /**
+     * Concurrent requests for the same expected values, e.g. from the paint and the prefetcher, share one load
+     */
+    private static ExpectedValueFunction loadExpectedValues(Dataset ds, HiCZoom zoom, NormalizationType no) {
+        return expectedValueLoads.load(Arrays.asList(ds, zoom, no), () -> ds.getExpectedValues(zoom, no, false));
+    }
+
+    /**
+     * After a map was loaded, loads the expected values and normalization vectors of the current view on a
+     * background thread, so the first switch to observed/expected or to a normalization does not wait on the file.
+     * A paint that needs them in the meantime shares the load rather than repeating it. The warm-up is abandoned
+     * as soon as the dataset, chromosomes, zoom or normalization change.
+     */
+    public void warmUpInBackground() {
+        final HiCZoom zoom = currentZoom;
+        final Dataset ds = dataset;
+        final Dataset ctrlDs = controlDataset;
+        final NormalizationType obsNorm = obsNormalizationType;
+        final NormalizationType ctrlNorm = ctrlNormalizationType;
+        final GUIMatrixZoomData zd, controlZd;
+        final ViewToken token = warmUpGeneration.advance();
+        try {
+            zd = getZd();
+            controlZd = getControlZd();
+        } catch (Exception e) {
+            return;
+        }
+
+        warmUpExecutor.execute(() -> {
+            try {
+                warmUp(ds, zd, zoom, obsNorm, token);
+                if (ctrlDs != null && controlZd != null) {
+                    warmUp(ctrlDs, controlZd, zoom, ctrlNorm, token);
+                }
+            } catch (Exception e) {
+                if (JBGlobals.printVerboseComments) {
+                    System.err.println("Unable to warm up dataset: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * The normalization in use, and when that is none, the first one the dataset offers as the likely next choice
+     */
+    private static void warmUp(Dataset ds, GUIMatrixZoomData zd, HiCZoom zoom, NormalizationType current,
+                               ViewToken token) {
+        List<NormalizationType> normalizations = new ArrayList<>();
+        normalizations.add(current);
+        if (current.equals(NormalizationHandler.NONE)) {
+            for (NormalizationType no : ds.getNormalizationTypes()) {
+                if (!no.equals(NormalizationHandler.NONE)) {
+                    normalizations.add(no);
+                    break;
+                }
+            }
+        }
+        for (NormalizationType no : normalizations) {
+            if (token.isSuperseded()) return;
+            loadExpectedValues(ds, zoom, no);
+            if (token.isSuperseded()) return;
+            zd.warmUpNormalizationVectors(no);
+        }
     }
 
-    // Note - this is an inefficient method, used to support tooltip text only.
+    // Used to support tooltip text only; the value is found by binary search in the cached block.
     public float getNormalizedObservedValue(int binX, int binY) {
         float val = Float.NaN;
         try {
@@ -676,8 +814,14 @@ public class HiC {
                                                    final ZoomCallType zoomCallType, String message,
                                                    final boolean allowLocationBroadcast) {
         final boolean[] returnVal = new boolean[1];
-        superAdapter.executeLongRunningTask(() -> returnVal[0] = unsafeActuallySetZoomAndLocation(chrXName, chrYName, newZoom, genomeX, genomeY, scaleFactor,
-                resetZoom, zoomCallType, allowLocationBroadcast, isResolutionLocked() ? 1 : 0, true), message);
+        final ViewToken viewToken = zoomRequestGeneration.advance();
+        warmUpGeneration.advance();
+        superAdapter.executeLongRunningTask(() -> {
+            // a later zoom or location request was queued while this one waited; skip straight to that view
+            if (viewToken.isSuperseded()) return;
+            returnVal[0] = unsafeActuallySetZoomAndLocation(chrXName, chrYName, newZoom, genomeX, genomeY, scaleFactor,
+                    resetZoom, zoomCallType, allowLocationBroadcast, isResolutionLocked() ? 1 : 0, true);
+        }, message);
         return returnVal[0];
     }
 
@@ -789,7 +933,7 @@ public class HiC {
         } else {
             superAdapter.updateZoom(newZoom);
         }
-        superAdapter.refresh();
+        superAdapter.refreshKeepingTiles();
 
         if (linkedMode && allowLocationBroadcast) {
             broadcastLocation();
@@ -993,7 +1137,7 @@ public class HiC {
         return MatrixType.isControlPearsonType(displayOption);
     }
 
-    public String getColorScaleKey() {
+    public ColorScaleKey getColorScaleKey() {
         try {
             return getZd().getColorScaleKey(displayOption, obsNormalizationType, ctrlNormalizationType);
         } catch (Exception ignored) {
@@ -1040,6 +1184,22 @@ public class HiC {
 
     private void clearAllCacheForDataset(Dataset ds) {
         ds.clearCache(false);
+        RawBlockCache.getInstance().clear(ds);
+    }
+
+    /**
+     * @return resident size of the block cache, and hit rate of the main and control maps
+     */
+    public String getBlockCacheStatistics() {
+        RawBlockCache rawBlockCache = RawBlockCache.getInstance();
+        StringBuilder statistics = new StringBuilder(rawBlockCache.getStatistics());
+        if (dataset != null) {
+            statistics.append("\n\nMain map\n").append(rawBlockCache.getStatistics(dataset));
+        }
+        if (isControlLoaded()) {
+            statistics.append("\n\nControl map\n").append(rawBlockCache.getStatistics(controlDataset));
+        }
+        return statistics.toString();
     }
 
     public String[] getNormalizationOptions(boolean isControl) {
@@ -0,0 +1,269 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data;
+
+import javastraw.reader.Dataset;
+import javastraw.reader.type.NormalizationHandler;
+import javastraw.reader.type.NormalizationType;
+import juicebox.JBGlobals;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Raw (NONE) blocks of the open datasets in compact form, by zoom data and block number. The block cache of
+ * javastraw is keyed by normalization, so switching normalizations would read and decompress every block again;
+ * GUIMatrixZoomData instead normalizes the blocks held here in memory. The normalized blocks are kept here
+ * as well, keyed by their normalization, so that every paint of a normalized view gets the same block objects
+ * rather than normalizing them again.
+ * <p>
+ * The cache is shared by the main and control datasets and bounded by a memory budget in bytes, weighing each
+ * block by its number of contacts. Blocks are evicted in least-recently-used order regardless of the dataset
+ * they belong to, and resident size and hits are accounted per dataset.
+ * <p>
+ * A block read before the cache was last cleared is not cached, so that a load still in flight when a dataset
+ * is closed does not put its blocks back. A cleared dataset is only accounted again once a block read after
+ * the clear is cached, so a closed dataset is not held on to by its statistics.
+ */
+public class RawBlockCache {
+
+    // key, map entry and recency links
+    private static final long ENTRY_OVERHEAD_BYTES = 96;
+    private static final RawBlockCache instance = new RawBlockCache();
+
+    private final LinkedHashMap<Key, CompactBlock> blocks = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<Dataset, DatasetStatistics> statistics = new IdentityHashMap<>();
+    private final Set<Dataset> clearedDatasets = Collections.newSetFromMap(new WeakHashMap<>());
+    private long maxBytes = JBGlobals.blockCacheMaxBytes;
+    private long residentBytes = 0;
+    private long generation = 0;
+
+    private RawBlockCache() {
+    }
+
+    public static RawBlockCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return null if the block is not cached
+     */
+    synchronized CompactBlock get(Key key) {
+        CompactBlock block = blocks.get(key);
+        DatasetStatistics datasetStatistics = clearedDatasets.contains(key.dataset)
+                ? statistics.get(key.dataset) : getStatistics(key.dataset);
+        if (datasetStatistics == null) {
+            return block;
+        } else if (block == null) {
+            datasetStatistics.misses++;
+        } else {
+            datasetStatistics.hits++;
+        }
+        return block;
+    }
+
+    /**
+     * Refreshes the block's recency, but does not count towards the hit statistics
+     */
+    synchronized CompactBlock peek(Key key) {
+        return blocks.get(key);
+    }
+
+    /**
+     * Taken before reading the blocks that are then passed to put
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @param generation from getGeneration() before the block was read; the block is dropped if the cache has
+     *                   been cleared since
+     */
+    synchronized void put(Key key, CompactBlock block, long generation) {
+        if (generation != this.generation) return;
+        clearedDatasets.remove(key.dataset);
+        remove(key);
+        blocks.put(key, block);
+        DatasetStatistics datasetStatistics = getStatistics(key.dataset);
+        long size = estimateSizeInBytes(block);
+        datasetStatistics.residentBytes += size;
+        datasetStatistics.blocks++;
+        residentBytes += size;
+        evictToBudget();
+    }
+
+    private void remove(Key key) {
+        CompactBlock block = blocks.remove(key);
+        if (block != null) {
+            release(key, block);
+        }
+    }
+
+    private void release(Key key, CompactBlock block) {
+        long size = estimateSizeInBytes(block);
+        residentBytes -= size;
+        DatasetStatistics datasetStatistics = statistics.get(key.dataset);
+        if (datasetStatistics != null) {
+            datasetStatistics.residentBytes -= size;
+            datasetStatistics.blocks--;
+        }
+    }
+
+    private void evictToBudget() {
+        // always keep the most recent block, even if it alone exceeds the budget
+        Iterator<Map.Entry<Key, CompactBlock>> iterator = blocks.entrySet().iterator();
+        while (residentBytes > maxBytes && blocks.size() > 1 && iterator.hasNext()) {
+            Map.Entry<Key, CompactBlock> eldest = iterator.next();
+            iterator.remove();
+            release(eldest.getKey(), eldest.getValue());
+            DatasetStatistics datasetStatistics = statistics.get(eldest.getKey().dataset);
+            if (datasetStatistics != null) {
+                datasetStatistics.evictions++;
+            }
+        }
+    }
+
+    private static long estimateSizeInBytes(CompactBlock block) {
+        return ENTRY_OVERHEAD_BYTES + block.getSizeInBytes();
+    }
+
+    private DatasetStatistics getStatistics(Dataset dataset) {
+        return statistics.computeIfAbsent(dataset, d -> new DatasetStatistics());
+    }
+
+    /**
+     * Drop the blocks of a dataset that was closed or replaced
+     */
+    public synchronized void clear(Dataset dataset) {
+        Iterator<Key> keys = blocks.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().dataset == dataset) {
+                keys.remove();
+            }
+        }
+        DatasetStatistics datasetStatistics = statistics.remove(dataset);
+        if (datasetStatistics != null) {
+            residentBytes -= datasetStatistics.residentBytes;
+        }
+        clearedDatasets.add(dataset);
+        generation++;
+    }
+
+    public synchronized void clear() {
+        clearedDatasets.addAll(statistics.keySet());
+        generation++;
+        blocks.clear();
+        statistics.clear();
+        residentBytes = 0;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evictToBudget();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public synchronized String getStatistics() {
+        return "Blocks: " + blocks.size() +
+                "\nResident: " + (residentBytes >> 20) + " MB of " + (maxBytes >> 20) + " MB";
+    }
+
+    /**
+     * @return resident size, hit rate and evictions of the blocks of one dataset
+     */
+    public synchronized String getStatistics(Dataset dataset) {
+        DatasetStatistics datasetStatistics = statistics.get(dataset);
+        if (datasetStatistics == null) {
+            datasetStatistics = new DatasetStatistics();
+        }
+        long requests = datasetStatistics.hits + datasetStatistics.misses;
+        return "Blocks: " + datasetStatistics.blocks +
+                "\nResident: " + (datasetStatistics.residentBytes >> 20) + " MB" +
+                "\nHits: " + datasetStatistics.hits + "  Misses: " + datasetStatistics.misses +
+                (requests > 0 ? String.format("  (%.1f%% hit rate)", 100.0 * datasetStatistics.hits / requests) : "") +
+                "\nEvictions: " + datasetStatistics.evictions;
+    }
+
+    private static class DatasetStatistics {
+        private long residentBytes = 0;
+        private int blocks = 0;
+        private long hits = 0, misses = 0, evictions = 0;
+    }
+
+    /**
+     * Datasets are compared by identity, main and control maps share zoom data keys
+     */
+    static final class Key {
+        private final Dataset dataset;
+        private final String zdKey;
+        private final int blockNumber;
+        private final NormalizationType normalizationType;
+        private final int hashCode;
+
+        Key(Dataset dataset, String zdKey, int blockNumber) {
+            this(dataset, zdKey, blockNumber, NormalizationHandler.NONE);
+        }
+
+        Key(Dataset dataset, String zdKey, int blockNumber, NormalizationType normalizationType) {
+            this.dataset = dataset;
+            this.zdKey = zdKey;
+            this.blockNumber = blockNumber;
+            this.normalizationType = normalizationType;
+            int h = System.identityHashCode(dataset);
+            h = 31 * h + zdKey.hashCode();
+            h = 31 * h + blockNumber;
+            h = 31 * h + Objects.hashCode(normalizationType);
+            this.hashCode = h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return hashCode == other.hashCode && dataset == other.dataset && blockNumber == other.blockNumber
+                    && zdKey.equals(other.zdKey) && Objects.equals(normalizationType, other.normalizationType);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key: the first caller loads, the others wait for its result
+ * instead of reading and decompressing the same data again. Nothing is kept once a load has finished,
+ * caching the results is left to the caller.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @return the result of the load of the key by this thread, or by another thread that was already loading it
+     */
+    public V load(K key, Supplier<V> loader) {
+        CompletableFuture<V> pending = begin(key);
+        if (pending != null) {
+            return await(pending);
+        }
+        V value;
+        try {
+            value = loader.get();
+        } catch (RuntimeException | Error e) {
+            fail(key, e);
+            throw e;
+        }
+        complete(key, value);
+        return value;
+    }
+
+    /**
+     * Claim the load of a key, for callers loading several keys at once. A caller that gets null back
+     * owns the load and must finish it with complete() or fail().
+     *
+     * @return null if the caller now owns the load, otherwise the load already in flight
+     */
+    public CompletableFuture<V> begin(K key) {
+        return inFlight.putIfAbsent(key, new CompletableFuture<>());
+    }
+
+    public void complete(K key, V value) {
+        CompletableFuture<V> future = inFlight.remove(key);
+        if (future != null) {
+            future.complete(value);
+        }
+    }
+
+    public void fail(K key, Throwable t) {
+        CompletableFuture<V> future = inFlight.remove(key);
+        if (future != null) {
+            future.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Waits for a load owned by another thread, rethrowing its failure
+     */
+    public static <V> V await(CompletableFuture<V> pending) {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for a load");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+}
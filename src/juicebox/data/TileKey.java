@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package juicebox.data;
+
+import javastraw.reader.type.HiCZoom;
+import javastraw.reader.type.MatrixType;
+
+import java.util.Objects;
+
+/**
+ * Identifies a rendered tile: the chromosome pair and resolution of the map, the tile position and the
+ * display option, and how many bins are pooled into each pixel. Immutable, with the hash code computed once,
+ * so it can key the tile caches without building a String for every tile lookup.
+ */
+public final class TileKey {
+
+    private final int chr1Index;
+    private final int chr2Index;
+    private final HiCZoom.HiCUnit unit;
+    private final int binSize;
+    private final int tileRow;
+    private final int tileColumn;
+    private final MatrixType displayOption;
+    private final int poolFactor;
+    private final int hashCode;
+
+    TileKey(int chr1Index, int chr2Index, HiCZoom.HiCUnit unit, int binSize, int tileRow, int tileColumn,
+            MatrixType displayOption, int poolFactor) {
+        this.chr1Index = chr1Index;
+        this.chr2Index = chr2Index;
+        this.unit = unit;
+        this.binSize = binSize;
+        this.tileRow = tileRow;
+        this.tileColumn = tileColumn;
+        this.displayOption = displayOption;
+        this.poolFactor = poolFactor;
+        int h = chr1Index;
+        h = 31 * h + chr2Index;
+        h = 31 * h + Objects.hashCode(unit);
+        h = 31 * h + binSize;
+        h = 31 * h + tileRow;
+        h = 31 * h + tileColumn;
+        h = 31 * h + Objects.hashCode(displayOption);
+        h = 31 * h + poolFactor;
+        this.hashCode = h;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof TileKey)) return false;
+        TileKey other = (TileKey) obj;
+        return hashCode == other.hashCode && chr1Index == other.chr1Index && chr2Index == other.chr2Index
+                && binSize == other.binSize && tileRow == other.tileRow && tileColumn == other.tileColumn
+                && unit == other.unit && displayOption == other.displayOption && poolFactor == other.poolFactor;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return chr1Index + "_" + chr2Index + "_" + unit + "_" + binSize + "_" + tileRow + "_" + tileColumn
+                + "_" + displayOption + (poolFactor > 1 ? "_p" + poolFactor : "");
+    }
+}
@@ -28,8 +28,10 @@ import juicebox.JBGlobals;
 import juicebox.assembly.IGVFeatureCopy;
 import juicebox.data.DirectoryManager;
 import juicebox.data.ProcessHelper;
+import juicebox.data.RawBlockCache;
 import juicebox.guifeature2d.Feature2DHandler;
 import juicebox.mapcolorui.ColorScaleHandler;
+import juicebox.mapcolorui.PixelPooling;
 import juicebox.state.SaveFileDialog;
 import juicebox.windowui.*;
 import org.broad.igv.ui.util.MessageUtils;
@@ -460,9 +462,88 @@ public class MainMenuBar extends JMenuBar {
 
      */
 
+    final JCheckBoxMenuItem showPerformanceHUD = new JCheckBoxMenuItem("Display Render Timings");
+    showPerformanceHUD.setSelected(JBGlobals.showPerformanceHUD);
+    showPerformanceHUD.addActionListener(e -> {
+      JBGlobals.showPerformanceHUD = showPerformanceHUD.isSelected();
+      superAdapter.getHeatmapPanel().repaint();
+    });
+
+    final JCheckBoxMenuItem prefetchTiles = new JCheckBoxMenuItem("Prefetch Tiles");
+    prefetchTiles.setSelected(JBGlobals.prefetchTiles);
+    prefetchTiles.addActionListener(e -> JBGlobals.prefetchTiles = prefetchTiles.isSelected());
+
+    final JCheckBoxMenuItem useDiskTileCache = new JCheckBoxMenuItem("Save Tiles to Disk");
+    useDiskTileCache.setSelected(JBGlobals.useDiskTileCache);
+    useDiskTileCache.addActionListener(e -> JBGlobals.useDiskTileCache = useDiskTileCache.isSelected());
+
+    final JMenu pixelPooling = new JMenu("Pool Bins When Zoomed Out");
+    ButtonGroup pixelPoolingGroup = new ButtonGroup();
+    for (PixelPooling pooling : PixelPooling.values()) {
+      final JRadioButtonMenuItem poolingItem = new JRadioButtonMenuItem(pooling.getLabel());
+      poolingItem.setSelected(JBGlobals.pixelPooling == pooling);
+      poolingItem.addActionListener(e -> {
+        JBGlobals.pixelPooling = pooling;
+        superAdapter.getHeatmapPanel().clearTileCache();
+        superAdapter.getHeatmapPanel().repaint();
+      });
+      pixelPoolingGroup.add(poolingItem);
+      pixelPooling.add(poolingItem);
+    }
+
+    final JMenuItem setTileCacheSize = new JMenuItem("Set Tile Cache Size...");
+    setTileCacheSize.addActionListener(e -> {
+      String newSize = MessageUtils.showInputDialog("Specify the tile cache size (MB)",
+              Long.toString(JBGlobals.tileCacheMaxBytes / (1024 * 1024)));
+      if (newSize == null) return;
+      try {
+        long megabytes = Long.parseLong(newSize.trim());
+        if (megabytes < 1) {
+          megabytes = 1;
+        }
+        JBGlobals.tileCacheMaxBytes = megabytes * 1024 * 1024;
+        superAdapter.getHeatmapPanel().setTileCacheMaxBytes(JBGlobals.tileCacheMaxBytes);
+      } catch (NumberFormatException t) {
+        JOptionPane.showMessageDialog(null, "Value must be an integer!");
+      }
+    });
+
+    final JMenuItem showTileCacheStatistics = new JMenuItem("Tile Cache Statistics...");
+    showTileCacheStatistics.addActionListener(e -> JOptionPane.showMessageDialog(superAdapter.getMainWindow(),
+            superAdapter.getHeatmapPanel().getTileCacheStatistics(), "Tile Cache", JOptionPane.INFORMATION_MESSAGE));
+
+    final JMenuItem setBlockCacheSize = new JMenuItem("Set Block Cache Size...");
+    setBlockCacheSize.addActionListener(e -> {
+      String newSize = MessageUtils.showInputDialog("Specify the block cache size (MB)",
+              Long.toString(JBGlobals.blockCacheMaxBytes / (1024 * 1024)));
+      if (newSize == null) return;
+      try {
+        long megabytes = Long.parseLong(newSize.trim());
+        if (megabytes < 1) {
+          megabytes = 1;
+        }
+        JBGlobals.blockCacheMaxBytes = megabytes * 1024 * 1024;
+        RawBlockCache.getInstance().setMaxBytes(JBGlobals.blockCacheMaxBytes);
+      } catch (NumberFormatException t) {
+        JOptionPane.showMessageDialog(null, "Value must be an integer!");
+      }
+    });
+
+    final JMenuItem showBlockCacheStatistics = new JMenuItem("Block Cache Statistics...");
+    showBlockCacheStatistics.addActionListener(e -> JOptionPane.showMessageDialog(superAdapter.getMainWindow(),
+            superAdapter.getHiC().getBlockCacheStatistics(), "Block Cache", JOptionPane.INFORMATION_MESSAGE));
+
     displayTiles.setSelected(JBGlobals.displayTiles);
     if (JBGlobals.isDevAssemblyToolsAllowedPublic) {
       devMenu.add(displayTiles);
+      devMenu.add(showPerformanceHUD);
+      devMenu.add(prefetchTiles);
+      devMenu.add(useDiskTileCache);
+      devMenu.add(pixelPooling);
+      devMenu.add(setTileCacheSize);
+      devMenu.add(showTileCacheStatistics);
+      devMenu.add(setBlockCacheSize);
+      devMenu.add(showBlockCacheStatistics);
       /*
       devMenu.add(hackColorScaleEqual);
       devMenu.add(hackColorScale);
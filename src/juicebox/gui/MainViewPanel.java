@@ -641,10 +641,12 @@ public class MainViewPanel {
 
         if (hic.getMatrix() != null) {
 
-            GUIMatrixZoomData zd0 = new GUIMatrixZoomData(hic.getMatrix().getFirstZoomData(hic.getZoom().getUnit()));
+            GUIMatrixZoomData zd0 = new GUIMatrixZoomData(hic.getMatrix().getFirstZoomData(hic.getZoom().getUnit()),
+                    hic.getDataset());
             GUIMatrixZoomData zdControl = null;
             if (hic.getControlMatrix() != null) {
-                zdControl = new GUIMatrixZoomData(hic.getControlMatrix().getFirstZoomData(hic.getZoom().getUnit()));
+                zdControl = new GUIMatrixZoomData(hic.getControlMatrix().getFirstZoomData(hic.getZoom().getUnit()),
+                        hic.getControlDataset());
             }
             try {
                 Image thumbnail = heatmapPanel.getThumbnailImage(zd0, zdControl,
@@ -27,8 +27,6 @@ package juicebox.gui;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DParser;
 import javastraw.reader.Dataset;
-import javastraw.reader.DatasetReader;
-import javastraw.reader.DatasetReaderFactory;
 import javastraw.reader.basics.Chromosome;
 import javastraw.reader.basics.ChromosomeHandler;
 import javastraw.reader.type.HiCZoom;
@@ -37,6 +35,7 @@ import javastraw.tools.HiCFileTools;
 import juicebox.JBGlobals;
 import juicebox.MainWindow;
 import juicebox.assembly.AssemblyStateTracker;
+import juicebox.data.DatasetOpener;
 import juicebox.data.HiC;
 import juicebox.data.HiCFileLoader;
 import juicebox.guifeature2d.AnnotationLayer;
@@ -365,6 +364,15 @@ public class SuperAdapter {
         repaint();
     }
 
+    /**
+     * Like refresh(), but keeps the rendered tiles. Tiles are keyed by resolution and location, so after a zoom
+     * the ones already rendered stay valid and the coarser ones stand in for the new tiles while those load.
+     */
+    public void refreshKeepingTiles() {
+        mainViewPanel.updateThumbnail(hic);
+        repaint();
+    }
+
     public void unsafeClearAllMatrixZoomCache() {
         //not sure if this is a right place for this
         hic.clearAllDataCache();
@@ -450,11 +458,10 @@ public class SuperAdapter {
                 JOptionPane.showMessageDialog(mainWindow, "Hi-C file summing is not supported.\n" +
                         "Using only the first file:\n" + files.get(0));
             }
-            DatasetReader reader = DatasetReaderFactory.getReaderForFile(files.get(0), JBGlobals.useCache, true);
+            Dataset dataset = DatasetOpener.open(files.get(0));
 
-            if (reader == null) return false;
-            Dataset dataset = reader.read();
-            if (reader.getVersion() < JBGlobals.minVersion) {
+            if (dataset == null) return false;
+            if (dataset.getVersion() < JBGlobals.minVersion) {
                 JOptionPane.showMessageDialog(mainWindow, "This version of \"hic\" format is no longer supported");
                 return false;
             }
@@ -699,6 +706,7 @@ public class SuperAdapter {
                 //mainViewPanel.updateThumbnail(hic);
                 refresh();
                 updateTitle(control, title);
+                hic.warmUpInBackground();
             }
         } catch (IOException e) {
             // TODO somehow still have trouble reloading the previous file
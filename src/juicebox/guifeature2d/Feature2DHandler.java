@@ -56,6 +56,7 @@ public class Feature2DHandler {
     private boolean sparseFeaturePlottingEnabled = false, isEnlargedPlottingEnabled = false;
     private boolean layerVisible = true;
     private String path = null;
+    private int version = 0;
 
     public Feature2DHandler() {
         loopList = new Feature2DList();
@@ -110,6 +111,14 @@ public class Feature2DHandler {
         loopList = new Feature2DList();
         layerVisible = true;
         featureRtrees.clear();
+        version++;
+    }
+
+    /**
+     * Changes whenever the features or the way they are plotted change, so rendered features can be cached
+     */
+    public int getVersion() {
+        return version;
     }
 
     public boolean getLayerVisibility() {
@@ -118,11 +127,13 @@ public class Feature2DHandler {
 
     public void setLayerVisibility(boolean showLoops) {
         this.layerVisible = showLoops;
+        version++;
     }
 
 
     protected void remakeRTree() {
         featureRtrees.clear();
+        version++;
 
         loopList.processLists((key, features) -> {
 
@@ -293,6 +304,7 @@ public class Feature2DHandler {
 
     public void setSparsePlottingEnabled(boolean status) {
         sparseFeaturePlottingEnabled = status;
+        version++;
     }
 
     public boolean getIsSparsePlottingEnabled() {
@@ -305,6 +317,7 @@ public class Feature2DHandler {
 
     public void setIsTransparent(boolean status) {
         isTranslucentPlottingEnabled = status;
+        version++;
     }
 
     public boolean getIsEnlarged() {
@@ -313,11 +326,12 @@ public class Feature2DHandler {
 
     public void setIsEnlarged(boolean status) {
         isEnlargedPlottingEnabled = status;
+        version++;
     }
 
     public void setColorOfAllAnnotations(Color color) {
         loopList.setColor(color);
-
+        version++;
     }
 
     public Feature2DList getFeatureList() {
@@ -0,0 +1,151 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.mapcolorui;
+
+import javastraw.feature2D.Feature2D;
+import juicebox.data.GUIMatrixZoomData;
+import juicebox.guifeature2d.AnnotationLayerHandler;
+import juicebox.guifeature2d.Feature2DHandler;
+import juicebox.guifeature2d.FeatureRenderer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The 2D annotation layers rasterized into one transparent image, so that panning does not query the
+ * feature trees and redraw every feature on each frame. The image extends beyond the view by a margin
+ * and is reused while the view stays within it. It is rendered again when the chromosomes, resolution,
+ * scale or panel size change, or when any layer's features, visibility or style change.
+ * Highlights are cheap and drawn directly on every frame.
+ */
+class AnnotationLayerCache {
+
+    // fraction of the view width and height cached beyond each edge
+    private static final double MARGIN_FRACTION = 0.25;
+
+    private BufferedImage image;
+    private List<Object> imageState;
+    private double imageOriginX, imageOriginY;
+    private int marginX, marginY;
+    private final List<AnnotationLayerHandler> layers = new ArrayList<>();
+    private final List<List<Feature2D>> layerFeatures = new ArrayList<>();
+
+    void invalidate() {
+        imageState = null;
+    }
+
+    /**
+     * Draw the layers and register their features with the mouse handler for hit testing
+     */
+    void render(Graphics2D g2, List<AnnotationLayerHandler> handlers, GUIMatrixZoomData zd,
+                double binOriginX, double binOriginY, double scaleFactor, int centerX, int centerY,
+                int width, int height, List<Feature2D> highlightedFeatures, boolean showFeatureHighlight,
+                HeatmapMouseHandler mouseHandler) {
+        double deviceScaleX = g2.getTransform().getScaleX();
+        double deviceScaleY = g2.getTransform().getScaleY();
+        List<Object> state = getState(handlers, zd, scaleFactor, width, height, deviceScaleX, deviceScaleY);
+        int offsetX = (int) Math.round((imageOriginX - binOriginX) * scaleFactor);
+        int offsetY = (int) Math.round((imageOriginY - binOriginY) * scaleFactor);
+        if (!state.equals(imageState) || Math.abs(offsetX) > marginX || Math.abs(offsetY) > marginY) {
+            renderImage(handlers, zd, binOriginX, binOriginY, scaleFactor, centerX, centerY, width, height,
+                    deviceScaleX, deviceScaleY);
+            imageState = state;
+            offsetX = 0;
+            offsetY = 0;
+        }
+
+        int x = offsetX - marginX;
+        int y = offsetY - marginY;
+        g2.drawImage(image, x, y, x + width + 2 * marginX, y + height + 2 * marginY,
+                0, 0, image.getWidth(), image.getHeight(), null);
+
+        for (int i = 0; i < layers.size(); i++) {
+            mouseHandler.addAllFeatures(layers.get(i), layerFeatures.get(i), zd,
+                    binOriginX, binOriginY, scaleFactor, false);
+            FeatureRenderer.render(g2, layers.get(i), null, zd, binOriginX, binOriginY, scaleFactor,
+                    highlightedFeatures, showFeatureHighlight, width, height);
+        }
+    }
+
+    private List<Object> getState(List<AnnotationLayerHandler> handlers, GUIMatrixZoomData zd, double scaleFactor,
+                                  int width, int height, double deviceScaleX, double deviceScaleY) {
+        List<Object> state = new ArrayList<>(Arrays.asList(zd.getChr1Idx(), zd.getChr2Idx(), zd.getZoom().getUnit(),
+                zd.getZoom().getBinSize(), scaleFactor, width, height, deviceScaleX, deviceScaleY,
+                Feature2DHandler.numberOfLoopsToFind));
+        for (AnnotationLayerHandler handler : handlers) {
+            state.add(handler);
+            state.add(handler.getFeatureHandler().getVersion());
+            state.add(handler.getNumberOfFeatures());
+            state.add(handler.getPlottingStyle());
+            state.add(handler.getLineStyle());
+        }
+        return state;
+    }
+
+    private void renderImage(List<AnnotationLayerHandler> handlers, GUIMatrixZoomData zd,
+                             double binOriginX, double binOriginY, double scaleFactor, int centerX, int centerY,
+                             int width, int height, double deviceScaleX, double deviceScaleY) {
+        marginX = (int) (width * MARGIN_FRACTION);
+        marginY = (int) (height * MARGIN_FRACTION);
+        imageOriginX = binOriginX;
+        imageOriginY = binOriginY;
+        int imageWidth = Math.max(1, (int) Math.ceil((width + 2 * marginX) * deviceScaleX));
+        int imageHeight = Math.max(1, (int) Math.ceil((height + 2 * marginY) * deviceScaleY));
+        if (image == null || image.getWidth() != imageWidth || image.getHeight() != imageHeight) {
+            image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        Graphics2D g = image.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, imageWidth, imageHeight);
+        g.setComposite(AlphaComposite.SrcOver);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.scale(deviceScaleX, deviceScaleY);
+        g.translate(marginX, marginY);
+
+        layers.clear();
+        layerFeatures.clear();
+        for (AnnotationLayerHandler handler : handlers) {
+            List<Feature2D> loops = handler.getNearbyFeatures(zd, zd.getChr1Idx(), zd.getChr2Idx(),
+                    centerX, centerY, Feature2DHandler.numberOfLoopsToFind, binOriginX, binOriginY, scaleFactor);
+            List<Feature2D> cLoopsReflected = new ArrayList<>();
+            for (Feature2D feature2D : loops) {
+                if (zd.getChr1Idx() == zd.getChr2Idx() && !feature2D.isOnDiagonal()) {
+                    cLoopsReflected.add(feature2D.reflectionAcrossDiagonal());
+                }
+            }
+            loops.addAll(cLoopsReflected);
+            layers.add(handler);
+            layerFeatures.add(loops);
+
+            FeatureRenderer.render(g, handler, loops, zd, binOriginX, binOriginY, scaleFactor,
+                    null, false, width, height);
+        }
+        g.dispose();
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.mapcolorui;
+
+import javastraw.reader.Dataset;
+import javastraw.reader.DatasetReader;
+import javastraw.reader.DatasetReaderFactory;
+import javastraw.reader.basics.Chromosome;
+import javastraw.reader.basics.ChromosomeHandler;
+import javastraw.reader.expected.ExpectedValueFunction;
+import javastraw.reader.mzd.Matrix;
+import javastraw.reader.mzd.MatrixZoomData;
+import javastraw.reader.type.HiCZoom;
+import javastraw.reader.type.MatrixType;
+import javastraw.reader.type.NormalizationHandler;
+import javastraw.reader.type.NormalizationType;
+import juicebox.JBGlobals;
+import juicebox.data.GUIMatrixZoomData;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders a PNG for every locus of a BED or BEDPE file without opening the GUI, e.g. for figures of
+ * hundreds of loops. Loci are rendered in parallel through HeatmapRenderer, from one dataset so the
+ * blocks read for one locus are cached for the next. Runs on a headless machine.
+ * <p>
+ * Unless a color range is given, each image gets the color scale the GUI would compute for it on its own.
+ * Display options that need a control map are not supported.
+ */
+public class BatchSnapshotRenderer {
+
+    private static final String USAGE = "Usage: BatchSnapshotRenderer [-r resolution] [-k normalization] " +
+            "[-d displayOption] [-c min,max] [-w imageWidth] [-t threads] [-v] <hic file> <BED or BEDPE file> <output directory>";
+    private static final int PROGRESS_INTERVAL = 100;
+    // larger loci are pooled down to this many pixels per side before rendering, so a wide locus at a fine
+    // resolution does not allocate a raster per worker thread that runs the whole batch out of memory
+    private static final int MAX_RENDERED_SIDE = 2048;
+
+    private final Dataset dataset;
+    private final HiCZoom zoom;
+    private final NormalizationType normalizationType;
+    private final MatrixType displayOption;
+    private final double[] colorRange;
+    private final int imageWidth;
+    private final File outputDirectory;
+    private final ExpectedValueFunction expectedValues;
+    // one per chromosome pair, so that every locus on the pair reads through the same block cache
+    private final Map<String, GUIMatrixZoomData> zoomDataMap = new ConcurrentHashMap<>();
+
+    /**
+     * @param colorRange min and max of the color scale, or null to compute it from each locus
+     * @param imageWidth width of the larger side of the images in pixels, or 0 for one pixel per bin
+     */
+    public BatchSnapshotRenderer(Dataset dataset, HiCZoom zoom, NormalizationType normalizationType,
+                                 MatrixType displayOption, double[] colorRange, int imageWidth, File outputDirectory) {
+        this.dataset = dataset;
+        this.zoom = zoom;
+        this.normalizationType = normalizationType;
+        this.displayOption = displayOption;
+        this.colorRange = colorRange;
+        this.imageWidth = imageWidth;
+        this.outputDirectory = outputDirectory;
+        this.expectedValues = dataset.getExpectedValues(zoom, normalizationType, false);
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        int resolution = 10000;
+        String normalization = NormalizationHandler.NONE.getLabel();
+        String display = MatrixType.OBSERVED.name();
+        double[] colorRange = null;
+        int imageWidth = 0;
+        int numThreads = JBGlobals.numTileRenderThreads;
+        List<String> positionalArgs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-r":
+                        resolution = Integer.parseInt(args[++i]);
+                        break;
+                    case "-k":
+                        normalization = args[++i];
+                        break;
+                    case "-d":
+                        display = args[++i].toUpperCase();
+                        break;
+                    case "-c":
+                        String[] range = args[++i].split(",");
+                        colorRange = new double[]{Double.parseDouble(range[0]), Double.parseDouble(range[1])};
+                        break;
+                    case "-w":
+                        imageWidth = Integer.parseInt(args[++i]);
+                        break;
+                    case "-t":
+                        numThreads = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "-v":
+                        JBGlobals.printVerboseComments = true;
+                        break;
+                    default:
+                        positionalArgs.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.err.println("Invalid argument: " + e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        if (positionalArgs.size() != 3) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        try {
+            List<Locus> loci = readLoci(new File(positionalArgs.get(1)));
+            File outputDirectory = new File(positionalArgs.get(2));
+            if (!outputDirectory.exists() && !outputDirectory.mkdirs()) {
+                System.err.println("Unable to create output directory " + outputDirectory);
+                System.exit(1);
+            }
+
+            DatasetReader reader = DatasetReaderFactory.getReaderForFile(positionalArgs.get(0), JBGlobals.useCache, true);
+            if (reader == null) {
+                System.err.println("Unable to open " + positionalArgs.get(0));
+                System.exit(1);
+            }
+            Dataset dataset = reader.read();
+            NormalizationType normalizationType = dataset.getNormalizationHandler().getNormTypeFromString(normalization);
+            MatrixType displayOption = MatrixType.valueOf(display);
+
+            BatchSnapshotRenderer renderer = new BatchSnapshotRenderer(dataset, new HiCZoom(HiCZoom.HiCUnit.BP, resolution),
+                    normalizationType, displayOption, colorRange, imageWidth, outputDirectory);
+            int numFailed = renderer.renderAll(loci, numThreads);
+            System.exit(numFailed == 0 ? 0 : 2);
+        } catch (Exception e) {
+            System.err.println("Batch rendering failed: " + e.getMessage());
+            if (JBGlobals.printVerboseComments) e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Render every locus on a pool of worker threads and report the throughput
+     *
+     * @return the number of loci that could not be rendered
+     */
+    public int renderAll(List<Locus> loci, int numThreads) throws InterruptedException {
+        AtomicInteger numRendered = new AtomicInteger();
+        AtomicInteger numFailed = new AtomicInteger();
+        long startNanos = System.nanoTime();
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        for (Locus locus : loci) {
+            executor.submit(() -> {
+                boolean success;
+                try {
+                    success = renderLocus(locus);
+                } catch (Exception e) {
+                    System.err.println("Unable to render " + locus + ": " + e.getMessage());
+                    if (JBGlobals.printVerboseComments) e.printStackTrace();
+                    success = false;
+                }
+                int numDone = (success ? numRendered.incrementAndGet() : numFailed.incrementAndGet() + numRendered.get());
+                if (numDone % PROGRESS_INTERVAL == 0) {
+                    System.out.println(numDone + " of " + loci.size() + " loci, "
+                            + formatThroughput(numRendered.get(), System.nanoTime() - startNanos));
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        System.out.println("Rendered " + numRendered.get() + " images in " + String.format("%.1f", elapsedNanos / 1e9)
+                + " s with " + numThreads + " threads, " + formatThroughput(numRendered.get(), elapsedNanos)
+                + (numFailed.get() > 0 ? ", " + numFailed.get() + " failed" : ""));
+        return numFailed.get();
+    }
+
+    private static String formatThroughput(int numImages, long elapsedNanos) {
+        return String.format("%.2f images/s", numImages / Math.max(elapsedNanos / 1e9, 1e-9));
+    }
+
+    /**
+     * @return false if the locus is outside the map or the display option is not available for it
+     */
+    boolean renderLocus(Locus locus) throws IOException {
+        ChromosomeHandler chromosomeHandler = dataset.getChromosomeHandler();
+        Chromosome chr1 = chromosomeHandler.getChromosomeFromName(locus.chr1);
+        Chromosome chr2 = chromosomeHandler.getChromosomeFromName(locus.chr2);
+        if (chr1 == null || chr2 == null) {
+            System.err.println("Unknown chromosome in " + locus);
+            return false;
+        }
+
+        // matrices are stored with the lower chromosome index first
+        long start1 = locus.start1, end1 = locus.end1, start2 = locus.start2, end2 = locus.end2;
+        if (chr1.getIndex() > chr2.getIndex()) {
+            Chromosome chromosome = chr1;
+            chr1 = chr2;
+            chr2 = chromosome;
+            start1 = locus.start2;
+            end1 = locus.end2;
+            start2 = locus.start1;
+            end2 = locus.end1;
+        }
+
+        GUIMatrixZoomData zd = getZoomData(chr1, chr2);
+        if (zd == null) {
+            System.err.println("No data at " + zoom + " for " + locus);
+            return false;
+        }
+
+        int binSize = zoom.getBinSize();
+        int binX = (int) (start1 / binSize);
+        int binY = (int) (start2 / binSize);
+        long widthInBins = Math.max(1, (end1 - 1) / binSize - binX + 1);
+        long heightInBins = Math.max(1, (end2 - 1) / binSize - binY + 1);
+        int poolFactor = getPoolFactor(Math.max(widthInBins, heightInBins));
+        if (poolFactor > 1 && (JBGlobals.pixelPooling == PixelPooling.NONE || !PixelPooling.isPoolable(displayOption))) {
+            System.err.println("Skipping " + locus + ": " + Math.max(widthInBins, heightInBins) + " bins per side at "
+                    + zoom + " is too large to render " + displayOption + " without pooling bins");
+            return false;
+        }
+        if (Math.max(widthInBins, heightInBins) > Integer.MAX_VALUE) {
+            System.err.println("Skipping " + locus + ": too large to render at " + zoom);
+            return false;
+        }
+        int width = (int) widthInBins;
+        int height = (int) heightInBins;
+
+        // a color scale of its own, so each image is scaled to its own locus as in the GUI
+        ColorScaleHandler colorScaleHandler = new ColorScaleHandler();
+        if (colorRange != null) {
+            colorScaleHandler.setNewDisplayRange(displayOption, colorRange[0], colorRange[1],
+                    zd.getColorScaleKey(displayOption, normalizationType, NormalizationHandler.NONE));
+        }
+
+        BufferedImage image = RasterHeatmapRenderer.createTileImage((width + poolFactor - 1) / poolFactor,
+                (height + poolFactor - 1) / poolFactor);
+        if (!JBGlobals.isDarkulaModeEnabled) {
+            // empty bins are drawn on the map background, as in the GUI, rather than left transparent
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            Arrays.fill(data, Color.WHITE.getRGB());
+        }
+        HeatmapRenderer renderer = new RasterHeatmapRenderer(image, colorScaleHandler);
+        renderer.setPooling(poolFactor > 1 ? JBGlobals.pixelPooling : PixelPooling.NONE, poolFactor);
+        if (!renderer.render(binX, binY, width, height, zd, null, displayOption,
+                normalizationType, NormalizationHandler.NONE, expectedValues, null, true)) {
+            System.err.println("Unable to render " + displayOption + " for " + locus);
+            return false;
+        }
+
+        File file = new File(outputDirectory, locus.getFileName());
+        if (!ImageIO.write(scaleImage(image), "png", file)) {
+            System.err.println("Unable to write " + file);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return bins along each side of a pixel, so the larger side of the locus fits in the maximum rendered size
+     */
+    private int getPoolFactor(long binsPerSide) {
+        long poolFactor = (binsPerSide + getMaxRenderedSide() - 1) / getMaxRenderedSide();
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, poolFactor));
+    }
+
+    /**
+     * The requested image width if it is larger, so pooling never loses detail that would be scaled back up
+     */
+    private int getMaxRenderedSide() {
+        return Math.max(MAX_RENDERED_SIDE, imageWidth);
+    }
+
+    private GUIMatrixZoomData getZoomData(Chromosome chr1, Chromosome chr2) {
+        return zoomDataMap.computeIfAbsent(chr1.getIndex() + "_" + chr2.getIndex(), key -> {
+            Matrix matrix = dataset.getMatrix(chr1, chr2);
+            if (matrix == null) return null;
+            MatrixZoomData mzd = matrix.getZoomData(zoom);
+            return mzd == null ? null : new GUIMatrixZoomData(mzd, dataset);
+        });
+    }
+
+    /**
+     * Scale up so the larger side is imageWidth pixels, keeping bins square and sharp
+     */
+    private BufferedImage scaleImage(BufferedImage image) {
+        int largerSide = Math.max(image.getWidth(), image.getHeight());
+        if (imageWidth <= 0 || imageWidth == largerSide) {
+            return image;
+        }
+        double scale = (double) imageWidth / largerSide;
+        int scaledWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int scaledHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage scaledImage = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaledImage.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g.drawImage(image, 0, 0, scaledWidth, scaledHeight, null);
+        g.dispose();
+        return scaledImage;
+    }
+
+    /**
+     * Loci from a BED file (chr, start, end: the square around the region) or a BEDPE file
+     * (chr1, start1, end1, chr2, start2, end2). Header, track and comment lines are skipped.
+     */
+    static List<Locus> readLoci(File file) throws IOException {
+        List<Locus> loci = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser")) {
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                try {
+                    if (tokens.length >= 6 && isNumber(tokens[4])) {
+                        loci.add(new Locus(loci.size(), tokens[0], Long.parseLong(tokens[1]), Long.parseLong(tokens[2]),
+                                tokens[3], Long.parseLong(tokens[4]), Long.parseLong(tokens[5])));
+                    } else if (tokens.length >= 3) {
+                        long start = Long.parseLong(tokens[1]);
+                        long end = Long.parseLong(tokens[2]);
+                        loci.add(new Locus(loci.size(), tokens[0], start, end, tokens[0], start, end));
+                    } else {
+                        System.err.println("Skipping line " + lineNumber + ": " + line);
+                    }
+                } catch (NumberFormatException e) {
+                    // e.g. a header line with column names
+                    System.err.println("Skipping line " + lineNumber + ": " + line);
+                }
+            }
+        }
+        return loci;
+    }
+
+    private static boolean isNumber(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isDigit(token.charAt(i))) return false;
+        }
+        return !token.isEmpty();
+    }
+
+    static class Locus {
+        final int index;
+        final String chr1, chr2;
+        final long start1, end1, start2, end2;
+
+        Locus(int index, String chr1, long start1, long end1, String chr2, long start2, long end2) {
+            this.index = index;
+            this.chr1 = chr1;
+            this.start1 = start1;
+            this.end1 = end1;
+            this.chr2 = chr2;
+            this.start2 = start2;
+            this.end2 = end2;
+        }
+
+        String getFileName() {
+            return String.format("%05d_%s_%d_%d_%s_%d_%d.png", index, chr1, start1, end1, chr2, start2, end2);
+        }
+
+        @Override
+        public String toString() {
+            return chr1 + ":" + start1 + "-" + end1 + " x " + chr2 + ":" + start2 + "-" + end2;
+        }
+    }
+}
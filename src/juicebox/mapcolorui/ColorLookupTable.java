@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.mapcolorui;
+
+import java.awt.*;
+import java.util.function.DoubleFunction;
+
+/**
+ * A color scale compiled into a quantized table of packed ARGB values, so that coloring a contact
+ * is an index computation and an array load rather than a new java.awt.Color per pixel.
+ * Scores outside [min, max] are clamped to the end colors, matching the color scales this is built from.
+ */
+public class ColorLookupTable {
+
+    public static final int DEFAULT_SIZE = 4096;
+    private final int[] table;
+    private final float min;
+    private final float scale;
+    private final boolean logDomain;
+
+    private ColorLookupTable(int[] table, float min, float max, boolean logDomain) {
+        this.table = table;
+        this.min = min;
+        this.logDomain = logDomain;
+        float range = max - min;
+        this.scale = range > 0 ? (table.length - 1) / range : 0;
+    }
+
+    /**
+     * @param min           lowest value of the domain
+     * @param max           highest value of the domain
+     * @param logDomain     if true, the domain is log(score) and table entries are sampled at exp(value)
+     * @param colorFunction the color for a given score
+     */
+    public static ColorLookupTable build(float min, float max, boolean logDomain, DoubleFunction<Color> colorFunction) {
+        int[] table = new int[DEFAULT_SIZE];
+        double step = (max - min) / (double) (DEFAULT_SIZE - 1);
+        for (int i = 0; i < DEFAULT_SIZE; i++) {
+            double value = min + i * step;
+            Color color = colorFunction.apply(logDomain ? Math.exp(value) : value);
+            table[i] = color == null ? 0 : color.getRGB();
+        }
+        return new ColorLookupTable(table, min, max, logDomain);
+    }
+
+    public int getARGB(float score) {
+        float value = logDomain ? (float) Math.log(score) : score;
+        int index = (int) ((value - min) * scale + 0.5f);
+        if (index < 0) {
+            index = 0;
+        } else if (index >= table.length) {
+            index = table.length - 1;
+        }
+        return table[index];
+    }
+}
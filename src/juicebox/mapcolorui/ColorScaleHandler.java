@@ -26,49 +26,56 @@ package juicebox.mapcolorui;
 
 import javastraw.matrices.BasicMatrix;
 import javastraw.reader.block.Block;
-import javastraw.reader.block.ContactRecord;
 import javastraw.reader.type.MatrixType;
 import juicebox.JBGlobals;
+import juicebox.data.ColorScaleKey;
+import juicebox.data.CompactBlock;
 import juicebox.gui.SuperAdapter;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.broad.igv.renderer.ColorScale;
 import org.broad.igv.renderer.ContinuousColorScale;
 
 import java.awt.*;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ColorScaleHandler {
     private final PearsonColorScale pearsonColorScale = new PearsonColorScale();
-    private final Map<String, ContinuousColorScale> observedColorScaleMap = new HashMap<>();
-    private final Map<String, OEColorScale> ratioColorScaleMap = new HashMap<>();
+    private final Map<ColorScaleKey, ContinuousColorScale> observedColorScaleMap = new ConcurrentHashMap<>();
+    private final Map<ColorScaleKey, OEColorScale> ratioColorScaleMap = new ConcurrentHashMap<>();
+    private final Map<ColorScaleKey, ColorLookupTable> observedLookupTableMap = new ConcurrentHashMap<>();
+    private final Map<Block, QuantileSketch> blockSketches = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final int NAN_ARGB = Color.gray.getRGB();
+    private static final int ZERO_ARGB = Color.black.getRGB();
     public static Color HIC_MAP_COLOR = Color.RED;
 
     public PearsonColorScale getPearsonColorScale() {
         return pearsonColorScale;
     }
 
-    public void reset() {
+    public synchronized void reset() {
         observedColorScaleMap.clear();
         ratioColorScaleMap.clear();
+        observedLookupTableMap.clear();
     }
 
-    public Color getDenseMatrixColor(String key, float score, PearsonColorScale pearsonColorScale, ColorScale genericColorScale) {
-        Color color;
+    public int getDenseMatrixARGB(float score, ColorLookupTable pearsonLookupTable, ColorLookupTable genericLookupTable) {
         if (Float.isNaN(score) || Float.isInfinite(score)) {
-            color = Color.gray;
+            return NAN_ARGB;
         } else {
-            if (pearsonColorScale != null) {
-                color = score == 0 ? Color.black : pearsonColorScale.getColor(key, score);
+            if (pearsonLookupTable != null) {
+                return score == 0 ? ZERO_ARGB : pearsonLookupTable.getARGB(score);
             } else {
-                color = genericColorScale.getColor(score);
+                return genericLookupTable.getARGB(score);
             }
         }
-        return color;
     }
 
-    public void setNewDisplayRange(MatrixType displayOption, double min, double max, String key) {
+    public synchronized void setNewDisplayRange(MatrixType displayOption, double min, double max, ColorScaleKey key) {
+        if (key == null) return;
 
         if (MatrixType.isOEColorScaleType(displayOption)) {
 
@@ -92,18 +99,39 @@ public class ColorScaleHandler {
             }
             observedColorScale.setNegEnd(min);
             observedColorScale.setPosEnd(max);
+            observedLookupTableMap.remove(key);
         }
     }
 
-    public ColorScale getColorScale(String key, MatrixType displayOption, boolean isWholeGenome, List<Block> blocks, List<Block> ctrlBlocks, float max) {
+    public ColorLookupTable getColorLookupTable(ColorScaleKey key, MatrixType displayOption, boolean isWholeGenome, List<Block> blocks, List<Block> ctrlBlocks, float max) {
         if (blocks.isEmpty()) {
-            return getColorScale(key, displayOption, isWholeGenome, ctrlBlocks, max);
+            return getColorLookupTable(key, displayOption, isWholeGenome, ctrlBlocks, max);
         } else {
-            return getColorScale(key, displayOption, isWholeGenome, blocks, max);
+            return getColorLookupTable(key, displayOption, isWholeGenome, blocks, max);
         }
     }
 
-    public ColorScale getColorScale(String key, MatrixType displayOption, boolean wholeGenome, List<Block> blocks, float givenMax) {
+    /**
+     * The color scale for this view compiled into a lookup table; only rebuilt when the range,
+     * threshold or map color of the underlying color scale changes.
+     */
+    public synchronized ColorLookupTable getColorLookupTable(ColorScaleKey key, MatrixType displayOption, boolean wholeGenome, List<Block> blocks, float givenMax) {
+        ColorScale colorScale = getColorScale(key, displayOption, wholeGenome, blocks, givenMax);
+        if (colorScale instanceof OEColorScale) {
+            return ((OEColorScale) colorScale).getLookupTable();
+        }
+
+        ColorLookupTable lookupTable = observedLookupTableMap.get(key);
+        if (lookupTable == null) {
+            ContinuousColorScale observedColorScale = (ContinuousColorScale) colorScale;
+            lookupTable = ColorLookupTable.build((float) observedColorScale.getMinimum(), (float) observedColorScale.getMaximum(),
+                    false, v -> observedColorScale.getColor((float) v));
+            observedLookupTableMap.put(key, lookupTable);
+        }
+        return lookupTable;
+    }
+
+    private ColorScale getColorScale(ColorScaleKey key, MatrixType displayOption, boolean wholeGenome, List<Block> blocks, float givenMax) {
 
         if (MatrixType.isOEColorScaleType(displayOption)) {
             OEColorScale oeColorScale = ratioColorScaleMap.get(key);
@@ -136,38 +164,123 @@ public class ColorScaleHandler {
         }
     }
 
-    public void updateColorSliderFromColorScale(SuperAdapter superAdapter, MatrixType displayOption, String key) {
+    /**
+     * @return true if the color scale for this key is still to be computed from the blocks of a tile; the
+     * observed/expected and Pearson color scales do not depend on the blocks
+     */
+    public synchronized boolean isColorScaleMissing(ColorScaleKey key, MatrixType displayOption) {
+        return !MatrixType.isOEColorScaleType(displayOption) && !MatrixType.isPearsonType(displayOption)
+                && !observedColorScaleMap.containsKey(key);
+    }
 
-        if (MatrixType.isOEColorScaleType(displayOption)) {
+    /**
+     * A description of everything that determines the colors of a tile for this key, used to key
+     * the disk tile cache. Null if the color scale has not been computed yet, or for Pearson maps.
+     */
+    public synchronized String getColorScaleState(ColorScaleKey key, MatrixType displayOption) {
+        String state;
+        if (MatrixType.isPearsonType(displayOption)) {
+            return null;
+        } else if (MatrixType.isOEColorScaleType(displayOption)) {
             OEColorScale oeColorScale = ratioColorScaleMap.get(key);
+            if (oeColorScale == null) return null;
+            state = "oe:" + oeColorScale.getThreshold();
+        } else {
+            ContinuousColorScale observedColorScale = observedColorScaleMap.get(key);
+            if (observedColorScale == null) return null;
+            state = "obs:" + observedColorScale.getMinimum() + ":" + observedColorScale.getMaximum();
+        }
+        return state + getColorSettingsState();
+    }
 
-            if (oeColorScale == null) {
-                oeColorScale = new OEColorScale(displayOption);
-                ratioColorScaleMap.put(key, oeColorScale);
+    /**
+     * Sets up the color scale for this key from a state saved by getColorScaleState, unless it already exists
+     *
+     * @return false if the state does not apply to the current color settings
+     */
+    public synchronized boolean restoreColorScaleState(ColorScaleKey key, MatrixType displayOption, String state) {
+        if (state == null || !state.endsWith(getColorSettingsState())) return false;
+        String[] values = state.substring(0, state.length() - getColorSettingsState().length()).split(":");
+        try {
+            if (MatrixType.isOEColorScaleType(displayOption) && values[0].equals("oe") && values.length == 2) {
+                if (!ratioColorScaleMap.containsKey(key)) {
+                    setNewDisplayRange(displayOption, 0, Double.parseDouble(values[1]), key);
+                }
+                return true;
+            } else if (!MatrixType.isPearsonType(displayOption) && values[0].equals("obs") && values.length == 3) {
+                if (!observedColorScaleMap.containsKey(key)) {
+                    setNewDisplayRange(displayOption, Double.parseDouble(values[1]), Double.parseDouble(values[2]), key);
+                }
+                return true;
+            }
+        } catch (NumberFormatException e) {
+            if (JBGlobals.printVerboseComments) e.printStackTrace();
+        }
+        return false;
+    }
+
+    private static String getColorSettingsState() {
+        return "|" + HIC_MAP_COLOR.getRGB() + "|" + JBGlobals.isDarkulaModeEnabled + "|" + JBGlobals.HACK_COLORSCALE
+                + "|" + JBGlobals.HACK_COLORSCALE_LINEAR;
+    }
+
+    /**
+     * @return false if the color scale for this key has not been computed yet (i.e. its tiles are still rendering)
+     */
+    public boolean updateColorSliderFromColorScale(SuperAdapter superAdapter, MatrixType displayOption, ColorScaleKey key) {
+
+        if (MatrixType.isOEColorScaleType(displayOption)) {
+            OEColorScale oeColorScale;
+            synchronized (this) {
+                oeColorScale = ratioColorScaleMap.get(key);
+                if (oeColorScale == null) {
+                    oeColorScale = new OEColorScale(displayOption);
+                    ratioColorScaleMap.put(key, oeColorScale);
+                }
             }
             superAdapter.updateRatioColorSlider((int) oeColorScale.getMax(), oeColorScale.getThreshold());
         } else {
 
-            ContinuousColorScale observedColorScale = observedColorScaleMap.get(key);
+            ContinuousColorScale observedColorScale;
+            synchronized (this) {
+                observedColorScale = observedColorScaleMap.get(key);
+            }
             if ((observedColorScale != null)) {
                 superAdapter.updateColorSlider(observedColorScale.getMinimum(), observedColorScale.getMaximum());
+            } else {
+                return false;
             }
         }
+        return true;
     }
 
+    /**
+     * Estimated from the off-diagonal counts of the blocks, using a quantile sketch per block that is
+     * kept for as long as the block itself is cached
+     */
     public float computePercentile(List<Block> blocks, double p) {
-        DescriptiveStatistics stats = new DescriptiveStatistics();
+        QuantileSketch sketch = new QuantileSketch();
         if (blocks != null) {
             for (Block b : blocks) {
-                for (int i = 0; i < b.getContactRecords().size(); i += 10) {
-                    ContactRecord rec = b.getContactRecords().get(i);
-                    if (rec.getBinX() != rec.getBinY()) { // Filter diagonal
-                        stats.addValue(rec.getCounts());
-                    }
+                sketch.merge(getBlockSketch(b));
+            }
+        }
+        return sketch.getCount() == 0 ? 1 : (float) sketch.getPercentile(p);
+    }
+
+    private QuantileSketch getBlockSketch(Block b) {
+        QuantileSketch sketch = blockSketches.get(b);
+        if (sketch == null) {
+            sketch = new QuantileSketch();
+            CompactBlock block = CompactBlock.asCompact(b);
+            for (int i = 0; i < block.size(); i++) {
+                if (block.getBinX(i) != block.getBinY(i)) { // Filter diagonal
+                    sketch.add(block.getCounts(i));
                 }
             }
+            blockSketches.put(b, sketch);
         }
-        return stats.getN() == 0 ? 1 : (float) stats.getPercentile(p);
+        return sketch;
     }
 
     public float computePercentile(BasicMatrix bm, double p) {
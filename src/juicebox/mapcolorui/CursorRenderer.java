@@ -25,6 +25,8 @@
 package juicebox.mapcolorui;
 
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class CursorRenderer {
     private final HeatmapPanel parent;
@@ -94,4 +96,20 @@ public class CursorRenderer {
             }
         }
     }
+
+    /**
+     * @return the regions of the panel covered by the given cursors, for repainting just those
+     */
+    public List<Rectangle> getDamagedRegions(Point cursorPoint, Point diagonalCursorPoint) {
+        List<Rectangle> regions = new ArrayList<>();
+        if (cursorPoint != null) {
+            // one pixel of margin on either side for antialiasing
+            regions.add(new Rectangle(cursorPoint.x - 1, 0, 3, parent.getHeight()));
+            regions.add(new Rectangle(0, cursorPoint.y - 1, parent.getWidth(), 3));
+        } else if (diagonalCursorPoint != null) {
+            // diagonal lines span the whole panel
+            regions.add(new Rectangle(0, 0, parent.getWidth(), parent.getHeight()));
+        }
+        return regions;
+    }
 }
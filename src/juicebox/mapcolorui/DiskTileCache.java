@@ -0,0 +1,261 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.mapcolorui;
+
+import juicebox.JBGlobals;
+import juicebox.data.DirectoryManager;
+import org.broad.igv.util.HttpUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rendered tiles saved as PNGs under the Juicebox directory so they survive across sessions.
+ * Files are named by a hash of the caller's key, which must identify the map file, region, normalization,
+ * display option and color scale state. Reading a tile refreshes its modification time; once the cache grows
+ * beyond JBGlobals.diskTileCacheMaxBytes the least recently used files are deleted.
+ * <p>
+ * The color scale state last used for a view is saved alongside, so a map reopened later can be painted
+ * from the saved tiles before any block has been read.
+ */
+class DiskTileCache {
+
+    private static final String TILE_DIRECTORY_NAME = "tile_cache";
+    private static final String TILE_SUFFIX = ".png";
+    private static final String COLOR_SCALE_SUFFIX = ".scale";
+    private static final int REMOTE_TIMEOUT_MILLIS = 10000;
+
+    // replaced rather than cleared, so clearing never waits on a remote request in progress
+    private volatile Map<String, String> fingerprints = new ConcurrentHashMap<>();
+    private final Map<String, String> savedColorScaleStates = new HashMap<>();
+    private File directory;
+    private long residentBytes = -1;
+
+    /**
+     * @param files the loaded files, separated by ## as in SuperAdapter.currentlyLoadedMainFiles
+     * @return the paths with the size and modification time of local files, and the ETag, modification time
+     * and length of remote ones; null if any file cannot be identified beyond its path, in which case the
+     * disk cache must not be used. Remembered until clearFingerprints().
+     */
+    String getFingerprint(String files) {
+        return fingerprints.computeIfAbsent(files, DiskTileCache::computeFingerprint);
+    }
+
+    /**
+     * Called whenever the tile cache is cleared, e.g. after a map was loaded, so a file that was rewritten
+     * since is fingerprinted anew
+     */
+    void clearFingerprints() {
+        fingerprints = new ConcurrentHashMap<>();
+    }
+
+    private static String computeFingerprint(String files) {
+        StringBuilder builder = new StringBuilder();
+        for (String path : files.split("##")) {
+            builder.append(path);
+            File file = new File(path);
+            if (file.isFile()) {
+                builder.append(':').append(file.length()).append(':').append(file.lastModified());
+            } else if (HttpUtils.isRemoteURL(path)) {
+                String version = getRemoteVersion(path);
+                if (version == null) return null;
+                builder.append(':').append(version);
+            } else {
+                return null;
+            }
+            builder.append('|');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the ETag, Last-Modified and Content-Length headers of the URL, or null if it has none of them
+     */
+    private static String getRemoteVersion(String path) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(path).openConnection();
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(REMOTE_TIMEOUT_MILLIS);
+            connection.setReadTimeout(REMOTE_TIMEOUT_MILLIS);
+            if (connection.getResponseCode() >= 400) return null;
+            String eTag = connection.getHeaderField("ETag");
+            long lastModified = connection.getLastModified();
+            long length = connection.getContentLengthLong();
+            if (eTag == null && lastModified == 0 && length < 0) return null;
+            return eTag + ':' + lastModified + ':' + length;
+        } catch (IOException | ClassCastException e) {
+            if (JBGlobals.printVerboseComments) {
+                System.err.println("Unable to fingerprint " + path + ": " + e.getMessage());
+            }
+            return null;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    BufferedImage readTile(String key) {
+        File file = getFile(key, TILE_SUFFIX);
+        if (file == null || !file.exists()) return null;
+        try {
+            BufferedImage image = ImageIO.read(file);
+            if (!file.setLastModified(System.currentTimeMillis()) && JBGlobals.printVerboseComments) {
+                System.err.println("Unable to update access time of " + file);
+            }
+            return image;
+        } catch (IOException e) {
+            System.err.println("Unable to read cached tile " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    void writeTile(String key, BufferedImage image) {
+        File file = getFile(key, TILE_SUFFIX);
+        if (file == null) return;
+        try {
+            // write to a temporary file first so a concurrent reader never sees a partial image
+            File temporaryFile = new File(file.getParentFile(), file.getName() + ".tmp");
+            if (!ImageIO.write(image, "png", temporaryFile)) return;
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            addResidentBytes(file.length());
+        } catch (IOException e) {
+            System.err.println("Unable to save tile " + file + ": " + e.getMessage());
+        }
+    }
+
+    String readColorScaleState(String key) {
+        File file = getFile(key, COLOR_SCALE_SUFFIX);
+        if (file == null || !file.exists()) return null;
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    void writeColorScaleState(String key, String state) {
+        synchronized (this) {
+            if (state.equals(savedColorScaleStates.get(key))) return;
+            savedColorScaleStates.put(key, state);
+        }
+        File file = getFile(key, COLOR_SCALE_SUFFIX);
+        if (file == null) return;
+        try {
+            Files.write(file.toPath(), state.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("Unable to save color scale " + file + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized File getFile(String key, String suffix) {
+        if (directory == null) {
+            try {
+                directory = new File(DirectoryManager.getHiCDirectory(), TILE_DIRECTORY_NAME);
+            } catch (Exception e) {
+                System.err.println("Tile cache directory unavailable: " + e.getMessage());
+                return null;
+            }
+            if (!directory.exists() && !directory.mkdirs()) {
+                System.err.println("Unable to create tile cache directory " + directory);
+                directory = null;
+                return null;
+            }
+        }
+        return new File(directory, hash(key) + suffix);
+    }
+
+    private void addResidentBytes(long bytes) {
+        File[] files;
+        synchronized (this) {
+            if (residentBytes < 0) {
+                residentBytes = 0;
+                for (File file : listTiles()) {
+                    residentBytes += file.length();
+                }
+            } else {
+                residentBytes += bytes;
+            }
+            if (residentBytes <= JBGlobals.diskTileCacheMaxBytes) return;
+            files = listTiles();
+        }
+        prune(files);
+    }
+
+    private File[] listTiles() {
+        File[] files = directory == null ? null : directory.listFiles((dir, name) -> name.endsWith(TILE_SUFFIX));
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * Delete the least recently used tiles until the cache is back to 90% of its budget
+     */
+    private void prune(File[] files) {
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        long target = (long) (0.9 * JBGlobals.diskTileCacheMaxBytes);
+        long remainingBytes = 0;
+        for (File file : files) {
+            remainingBytes += file.length();
+        }
+        for (File file : files) {
+            if (remainingBytes <= target) break;
+            long length = file.length();
+            if (file.delete()) {
+                remainingBytes -= length;
+            }
+        }
+        synchronized (this) {
+            residentBytes = remainingBytes;
+        }
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode()) + "_" + key.length();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package juicebox.mapcolorui;
+
+import javastraw.reader.expected.ExpectedValueFunction;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Expected values flattened into dense arrays indexed by diagonal distance, one per expected value function
+ * (i.e. per zoom and normalization) and chromosome, so O/E rendering does an array load per contact instead of
+ * going through ExpectedValueFunction. Entries are filled in on first use. Arrays are dropped together with
+ * their expected value function.
+ */
+class ExpectedValueTable {
+
+    private static final Map<ExpectedValueFunction, Map<Integer, double[]>> tables =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final ExpectedValueFunction df;
+    private final int chromosome;
+    private final double[] values;
+
+    private ExpectedValueTable(ExpectedValueFunction df, int chromosome, double[] values) {
+        this.df = df;
+        this.chromosome = chromosome;
+        this.values = values;
+    }
+
+    /**
+     * @param length number of diagonals to keep, i.e. the bin count of the chromosome at this zoom
+     */
+    static ExpectedValueTable get(ExpectedValueFunction df, int chromosome, int length) {
+        double[] values;
+        synchronized (tables) {
+            Map<Integer, double[]> chromosomeTables = tables.computeIfAbsent(df, k -> new HashMap<>());
+            values = chromosomeTables.get(chromosome);
+            if (values == null || values.length < length) {
+                values = new double[Math.max(length, 1)];
+                Arrays.fill(values, Double.NaN);
+                chromosomeTables.put(chromosome, values);
+            }
+        }
+        return new ExpectedValueTable(df, chromosome, values);
+    }
+
+    boolean isFor(ExpectedValueFunction df, int chromosome) {
+        return this.df == df && this.chromosome == chromosome;
+    }
+
+    double getExpectedValue(int distance) {
+        if (distance >= values.length) {
+            return df.getExpectedValue(chromosome, distance);
+        }
+        double value = values[distance];
+        if (Double.isNaN(value)) {
+            value = df.getExpectedValue(chromosome, distance);
+            values[distance] = value;
+        }
+        return value;
+    }
+}
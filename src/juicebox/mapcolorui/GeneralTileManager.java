@@ -24,33 +24,56 @@
 
 package juicebox.mapcolorui;
 
+import javastraw.reader.type.HiCZoom;
 import javastraw.reader.type.MatrixType;
 import javastraw.reader.type.NormalizationType;
 import juicebox.JBGlobals;
+import juicebox.data.ColorScaleKey;
 import juicebox.data.GUIMatrixZoomData;
 import juicebox.data.HiC;
+import juicebox.data.TileKey;
 import juicebox.gui.SuperAdapter;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class GeneralTileManager {
     private static final int imageTileWidth = 500;
+    private static final Color PENDING_TILE_COLOR = new Color(230, 230, 230);
+    private static final Color DARKULA_PENDING_TILE_COLOR = new Color(80, 80, 80);
+    // how many coarser resolutions are searched for a tile to stand in for a pending one
+    private static final int MAX_STAND_IN_LEVELS = 3;
 
     private final HiCMapTileManager mapTileManager;
+    private final TilePrefetcher prefetcher;
+    private final PerformanceHUD performanceHUD = new PerformanceHUD();
+    private boolean colorSliderNeedsUpdate = false;
 
     public GeneralTileManager(ColorScaleHandler colorScaleHandler) {
         mapTileManager = new HiCMapTileManager(colorScaleHandler);
+        prefetcher = new TilePrefetcher(mapTileManager);
     }
 
     public boolean renderHiCTiles(HeatmapRenderer renderer, double binOriginX, double binOriginY, double bRight, double bBottom,
                                   GUIMatrixZoomData zd, GUIMatrixZoomData controlZd,
-                                  double scaleFactor, Rectangle bounds, HiC hic, JComponent parent, SuperAdapter superAdapter) {
+                                  double scaleFactor, Rectangle bounds, HiC hic, JComponent parent, SuperAdapter superAdapter,
+                                  boolean renderSynchronously) {
 
         boolean allTilesNull = true;
+        boolean measurePerformance = JBGlobals.showPerformanceHUD && !renderSynchronously;
+        if (measurePerformance) {
+            performanceHUD.beginFrame();
+        }
         MatrixType displayOption = hic.getDisplayOption();
         NormalizationType observedNormalizationType = hic.getObsNormalizationType();
         NormalizationType controlNormalizationType = hic.getControlNormalizationType();
+        // tiles rendered for printing or export keep one pixel per bin
+        final int poolFactor = renderSynchronously ? 1
+                : PixelPooling.getPoolFactor(JBGlobals.pixelPooling, scaleFactor, displayOption);
 
         // tile numbers
         int tLeft = (int) (binOriginX / imageTileWidth);
@@ -58,23 +81,42 @@ public class GeneralTileManager {
         int tTop = (int) (binOriginY / imageTileWidth);
         int tBottom = (int) Math.ceil(bBottom / imageTileWidth);
 
+        if (renderSynchronously) {
+            mapTileManager.renderMissingTiles(zd, controlZd, tTop, tBottom, tLeft, tRight, displayOption,
+                    observedNormalizationType, controlNormalizationType, hic);
+        } else {
+            Set<TileKey> visibleTiles = new HashSet<>();
+            for (int tileRow = tTop; tileRow <= tBottom; tileRow++) {
+                for (int tileColumn = tLeft; tileColumn <= tRight; tileColumn++) {
+                    visibleTiles.add(zd.getTileKey(tileRow, tileColumn, displayOption, poolFactor));
+                }
+            }
+            // the color scale of a new view comes from its top left tile, as when the tiles were rendered in order
+            mapTileManager.setVisibleTiles(visibleTiles, zd.getTileKey(tTop, tLeft, displayOption, poolFactor));
+        }
+
+        // only looked up once a tile turns out to be pending
+        List<GUIMatrixZoomData> coarserZds = null;
+
         for (int tileRow = tTop; tileRow <= tBottom; tileRow++) {
             for (int tileColumn = tLeft; tileColumn <= tRight; tileColumn++) {
 
+                boolean cacheHit = measurePerformance
+                        && mapTileManager.getRenderedImageTile(zd, tileRow, tileColumn, displayOption, poolFactor) != null;
                 ImageTile tile = null;
                 try {
                     tile = mapTileManager.getImageTile(zd, controlZd, tileRow, tileColumn, displayOption,
-                            observedNormalizationType, controlNormalizationType, hic, parent);
+                            observedNormalizationType, controlNormalizationType, hic, parent, renderSynchronously, poolFactor);
                 } catch (Exception e) {
                     System.err.println("Null tile: " + e.getMessage());
                     e.printStackTrace();
                 }
 
-                if (tile != null) {
+                if (tile != null && (tile.image != null || tile.isPending)) {
                     allTilesNull = false;
 
-                    int imageWidth = tile.image.getWidth(null);
-                    int imageHeight = tile.image.getHeight(null);
+                    int imageWidth = tile.width;
+                    int imageHeight = tile.height;
 
                     int xSrc0 = 0;
                     int xSrc1 = imageWidth;
@@ -112,11 +154,43 @@ public class GeneralTileManager {
                     }
 
 
+                    if (tile.isPending) {
+                        if (xDest0 < xDest1 && yDest0 < yDest1) {
+                            renderer.fillRect(xDest0, yDest0, (xDest1 - xDest0), (yDest1 - yDest0),
+                                    JBGlobals.isDarkulaModeEnabled ? DARKULA_PENDING_TILE_COLOR : PENDING_TILE_COLOR);
+                            if (coarserZds == null) {
+                                coarserZds = getCoarserZds(hic, zd);
+                            }
+                            drawCoarserStandIn(renderer, tile, coarserZds, zd.getZoom().getBinSize(), displayOption,
+                                    binOriginX, binOriginY, scaleFactor, xDest0, yDest0, xDest1, yDest1);
+                            if (measurePerformance) {
+                                performanceHUD.addTile(xDest0, yDest0, xDest1 - xDest0, yDest1 - yDest0, null, false, 0);
+                            }
+                        }
+                        continue;
+                    }
+
+                    final int tilePoolFactor = tile.poolFactor;
+                    if (tilePoolFactor > 1) {
+                        // widen the trimmed region to whole pooled pixels, the overhang is clipped anyway
+                        xSrc0 = xSrc0 / tilePoolFactor * tilePoolFactor;
+                        xSrc1 = Math.min(imageWidth, (xSrc1 + tilePoolFactor - 1) / tilePoolFactor * tilePoolFactor);
+                        ySrc0 = ySrc0 / tilePoolFactor * tilePoolFactor;
+                        ySrc1 = Math.min(imageHeight, (ySrc1 + tilePoolFactor - 1) / tilePoolFactor * tilePoolFactor);
+                        xDest0 = (int) ((tile.bLeft + xSrc0 - binOriginX) * scaleFactor);
+                        xDest1 = (int) ((tile.bLeft + xSrc1 - binOriginX) * scaleFactor);
+                        yDest0 = (int) ((tile.bTop + ySrc0 - binOriginY) * scaleFactor);
+                        yDest1 = (int) ((tile.bTop + ySrc1 - binOriginY) * scaleFactor);
+                    }
+
+                    long drawStartNanos = System.nanoTime();
                     try {
                         if (xDest0 < xDest1 && yDest0 < yDest1 && xSrc0 < xSrc1 && ySrc0 < ySrc1) {
                             // basically ensure that we're not trying to plot empty space
                             // also for some reason we have negative indices sometimes??
-                            renderer.drawImage(tile.image, xDest0, yDest0, xDest1, yDest1, xSrc0, ySrc0, xSrc1, ySrc1);
+                            renderer.drawImage(tile.image, xDest0, yDest0, xDest1, yDest1,
+                                    xSrc0 / tilePoolFactor, ySrc0 / tilePoolFactor,
+                                    (xSrc1 + tilePoolFactor - 1) / tilePoolFactor, (ySrc1 + tilePoolFactor - 1) / tilePoolFactor);
                         }
                     } catch (Exception e) {
 
@@ -135,6 +209,12 @@ public class GeneralTileManager {
                         }
                     }
 
+                    if (measurePerformance && xDest0 < xDest1 && yDest0 < yDest1) {
+                        performanceHUD.addTile(xDest0, yDest0, xDest1 - xDest0, yDest1 - yDest0,
+                                tile.timings == null ? new RenderTimings() : tile.timings, cacheHit,
+                                System.nanoTime() - drawStartNanos);
+                    }
+
                     if (JBGlobals.displayTiles) {
                         renderer.drawRect(xDest0, yDest0, (xDest1 - xDest0), (yDest1 - yDest0));
                     }
@@ -142,13 +222,25 @@ public class GeneralTileManager {
             }
         }
 
+        if (measurePerformance) {
+            performanceHUD.endFrame();
+        }
+
+        if (!renderSynchronously && JBGlobals.prefetchTiles) {
+            prefetcher.prefetch(hic, zd, controlZd, binOriginX, binOriginY, bRight, bBottom,
+                    tLeft, tRight, tTop, tBottom, poolFactor, parent);
+        }
+
         //In case of change to map settings, get map color limits and update slider:
         //TODO: || might not catch all changed at once, if more then one parameter changed...
         if (hic.testZoomChanged() || hic.testDisplayOptionChanged() || hic.testNormalizationTypeChanged()) {
+            colorSliderNeedsUpdate = true;
+        }
+        if (colorSliderNeedsUpdate) {
             //In case render is called as a result of zoom change event, check if
-            //We need to update slider with map range:
-            String cacheKey = HeatmapRenderer.getColorScaleCacheKey(zd, displayOption, observedNormalizationType, controlNormalizationType);
-            mapTileManager.updateColorSliderFromColorScale(superAdapter, displayOption, cacheKey);
+            //We need to update slider with map range; the color scale only exists once a tile has rendered
+            ColorScaleKey cacheKey = HeatmapRenderer.getColorScaleCacheKey(zd, displayOption, observedNormalizationType, controlNormalizationType);
+            colorSliderNeedsUpdate = !mapTileManager.updateColorSliderFromColorScale(superAdapter, displayOption, cacheKey);
             //debrisFeatureSize = (int) (debrisFeatureSize * scaleFactor);
         }
 
@@ -156,6 +248,104 @@ public class GeneralTileManager {
     }
 
 
+    /**
+     * Zoom data at the coarser resolutions of the current unit, nearest first, whose tiles can stand in for
+     * pending ones. Empty for fragment resolutions, whose bins do not line up across resolutions.
+     * Called while painting, so only zoom data that tiles were already requested for is used; a resolution
+     * without any is skipped rather than looked up in the dataset.
+     */
+    private List<GUIMatrixZoomData> getCoarserZds(HiC hic, GUIMatrixZoomData zd) {
+        List<GUIMatrixZoomData> coarserZds = new ArrayList<>();
+        HiCZoom zoom = zd.getZoom();
+        if (hic.isWholeGenome() || zoom.getUnit() != HiCZoom.HiCUnit.BP) {
+            return coarserZds;
+        }
+        try {
+            // zooms are ordered from coarsest to finest
+            List<HiCZoom> zooms = hic.getDataset().getBpZooms();
+            for (int i = zooms.size() - 1; i >= 0; i--) {
+                HiCZoom coarserZoom = zooms.get(i);
+                if (coarserZoom.getBinSize() > zoom.getBinSize() && coarserZds.size() < MAX_STAND_IN_LEVELS) {
+                    GUIMatrixZoomData coarserZd = mapTileManager.getRequestedZd(zd.getChr1Idx(), zd.getChr2Idx(),
+                            coarserZoom);
+                    if (coarserZd != null) {
+                        coarserZds.add(coarserZd);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            if (JBGlobals.printVerboseComments) {
+                System.err.println("Unable to find coarser resolutions: " + e.getMessage());
+            }
+        }
+        return coarserZds;
+    }
+
+    /**
+     * Scale up the already rendered tiles of the nearest coarser resolution that has any, over the visible part
+     * of a pending tile, so the region shows a blurry version of the map instead of a blank until the tile is ready.
+     */
+    private void drawCoarserStandIn(HeatmapRenderer renderer, ImageTile tile, List<GUIMatrixZoomData> coarserZds,
+                                    int binSize, MatrixType displayOption, double binOriginX, double binOriginY,
+                                    double scaleFactor, int xDest0, int yDest0, int xDest1, int yDest1) {
+        // visible part of the pending tile, in bins of the current resolution
+        double bx0 = Math.max(tile.bLeft, binOriginX + xDest0 / scaleFactor);
+        double bx1 = Math.min(tile.bLeft + tile.width, binOriginX + xDest1 / scaleFactor);
+        double by0 = Math.max(tile.bTop, binOriginY + yDest0 / scaleFactor);
+        double by1 = Math.min(tile.bTop + tile.height, binOriginY + yDest1 / scaleFactor);
+        if (bx0 >= bx1 || by0 >= by1) return;
+
+        for (GUIMatrixZoomData coarserZd : coarserZds) {
+            // coarser bins per current bin
+            double ratio = (double) binSize / coarserZd.getZoom().getBinSize();
+            double cx0 = bx0 * ratio, cx1 = bx1 * ratio, cy0 = by0 * ratio, cy1 = by1 * ratio;
+            boolean drewAny = false;
+            for (int tileRow = (int) (cy0 / imageTileWidth); tileRow * imageTileWidth < cy1; tileRow++) {
+                for (int tileColumn = (int) (cx0 / imageTileWidth); tileColumn * imageTileWidth < cx1; tileColumn++) {
+                    ImageTile coarserTile = getRenderedStandInTile(coarserZd, tileRow, tileColumn, displayOption,
+                            scaleFactor, ratio);
+                    if (coarserTile == null) continue;
+
+                    // source pixels are rounded inwards so the stand-in never spills over neighbouring tiles
+                    int k = coarserTile.poolFactor;
+                    int xSrc0 = (int) Math.ceil((Math.max(cx0, coarserTile.bLeft) - coarserTile.bLeft) / k) * k;
+                    int xSrc1 = (int) Math.floor((Math.min(cx1, coarserTile.bLeft + coarserTile.width) - coarserTile.bLeft) / k) * k;
+                    int ySrc0 = (int) Math.ceil((Math.max(cy0, coarserTile.bTop) - coarserTile.bTop) / k) * k;
+                    int ySrc1 = (int) Math.floor((Math.min(cy1, coarserTile.bTop + coarserTile.height) - coarserTile.bTop) / k) * k;
+                    if (xSrc0 >= xSrc1 || ySrc0 >= ySrc1) continue;
+
+                    int xStandIn0 = (int) (((coarserTile.bLeft + xSrc0) / ratio - binOriginX) * scaleFactor);
+                    int xStandIn1 = (int) (((coarserTile.bLeft + xSrc1) / ratio - binOriginX) * scaleFactor);
+                    int yStandIn0 = (int) (((coarserTile.bTop + ySrc0) / ratio - binOriginY) * scaleFactor);
+                    int yStandIn1 = (int) (((coarserTile.bTop + ySrc1) / ratio - binOriginY) * scaleFactor);
+                    renderer.drawImage(coarserTile.image, xStandIn0, yStandIn0, xStandIn1, yStandIn1,
+                            xSrc0 / k, ySrc0 / k, (xSrc1 + k - 1) / k, (ySrc1 + k - 1) / k);
+                    drewAny = true;
+                }
+            }
+            if (drewAny) return;
+        }
+    }
+
+    /**
+     * A coarser tile may have been rendered pooled like the current view (when it was prefetched), pooled to the
+     * screen scale of its own resolution, or with one pixel per bin
+     */
+    private ImageTile getRenderedStandInTile(GUIMatrixZoomData coarserZd, int tileRow, int tileColumn,
+                                             MatrixType displayOption, double scaleFactor, double ratio) {
+        int[] poolFactors = {
+                PixelPooling.getPoolFactor(JBGlobals.pixelPooling, scaleFactor, displayOption),
+                PixelPooling.getPoolFactor(JBGlobals.pixelPooling, scaleFactor / ratio, displayOption),
+                1};
+        for (int poolFactor : poolFactors) {
+            ImageTile tile = mapTileManager.getRenderedImageTile(coarserZd, tileRow, tileColumn, displayOption, poolFactor);
+            if (tile != null) {
+                return tile;
+            }
+        }
+        return null;
+    }
+
     private void bypassTileAndDirectlyDrawOnGraphics(HeatmapRenderer renderer, GUIMatrixZoomData zd, int tileRow, int tileColumn,
                                                      MatrixType displayOption, NormalizationType observedNormalizationType,
                                                      NormalizationType controlNormalizationType,
@@ -204,19 +394,71 @@ public class GeneralTileManager {
         renderer.translate(0, 0);
     }
 
+    /**
+     * Overlay the timings of the last frame, see JBGlobals.showPerformanceHUD
+     */
+    public void drawPerformanceHUD(Graphics2D g) {
+        performanceHUD.draw(g);
+    }
+
     public void clearTileCache() {
         mapTileManager.clearTileCache();
+        prefetcher.reset();
+    }
+
+    public void setTileCacheMaxBytes(long maxBytes) {
+        mapTileManager.setTileCacheMaxBytes(maxBytes);
+    }
+
+    public String getTileCacheStatistics() {
+        return mapTileManager.getTileCacheStatistics();
     }
 
     static class ImageTile {
         final int bLeft;
         final int bTop;
+        final int width;
+        final int height;
         final Image image;
+        final boolean isPending;
+        // bins along each side of an image pixel; width and height are always in bins
+        final int poolFactor;
+        // how the tile was produced, for the performance HUD; null if not measured
+        final RenderTimings timings;
+
+        ImageTile(Image image, int bLeft, int py0, int width, int height) {
+            this(image, bLeft, py0, width, height, 1, false, null);
+        }
+
+        ImageTile(Image image, int bLeft, int py0, int width, int height, int poolFactor, RenderTimings timings) {
+            this(image, bLeft, py0, width, height, poolFactor, false, timings);
+        }
 
-        ImageTile(Image image, int bLeft, int py0) {
+        private ImageTile(Image image, int bLeft, int py0, int width, int height, int poolFactor, boolean isPending,
+                          RenderTimings timings) {
             this.bLeft = bLeft;
             this.bTop = py0;
+            this.width = width;
+            this.height = height;
+            this.poolFactor = poolFactor;
             this.image = image;
+            this.isPending = isPending;
+            this.timings = timings;
+        }
+
+        /**
+         * Placeholder for a tile that is still being rendered in the background
+         */
+        static ImageTile pending(int bLeft, int py0, int width, int height) {
+            return new ImageTile(null, bLeft, py0, width, height, 1, true, null);
+        }
+
+        int getImageWidth() {
+            return (width + poolFactor - 1) / poolFactor;
+        }
+
+        int getImageHeight() {
+            return (height + poolFactor - 1) / poolFactor;
         }
     }
 }
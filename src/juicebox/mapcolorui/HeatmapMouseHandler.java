@@ -520,6 +520,7 @@ public class HeatmapMouseHandler extends MouseAdapter {
         if (straightEdgeEnabled || diagonalEdgeEnabled) {
             superAdapter.repaintTrackPanels();
         }
+        parent.repaintCursors();
     }
 
     @Override
@@ -990,7 +991,7 @@ public class HeatmapMouseHandler extends MouseAdapter {
             damageRect.y--;
             damageRect.width += 2;
             damageRect.height += 2;
-            parent.paintImmediately(damageRect);
+            parent.repaintOverlay(damageRect);
         } else if (dragMode == DragMode.ANNOTATE) {
             lastRectangle = annotateRectangle;
 
@@ -1008,7 +1009,7 @@ public class HeatmapMouseHandler extends MouseAdapter {
             damageRect.y--;
             damageRect.width += 2;
             damageRect.height += 2;
-            parent.paintImmediately(damageRect);
+            parent.repaintOverlay(damageRect);
         } else if (dragMode == DragMode.RESIZE) {
             if (deltaX_d == 0 || deltaY_d == 0) {
                 return;
@@ -1037,7 +1038,7 @@ public class HeatmapMouseHandler extends MouseAdapter {
             damageRect = lastRectangle == null ? annotateRectangle : annotateRectangle.union(lastRectangle);
             damageRect.width += 1;
             damageRect.height += 1;
-            parent.paintImmediately(damageRect);
+            parent.repaintOverlay(damageRect);
             superAdapter.getActiveLayerHandler().updateSelectionRegion(damageRect);
             changedSize = true;
         } else {
@@ -1347,7 +1348,12 @@ public class HeatmapMouseHandler extends MouseAdapter {
                 hic.setCursorPoint(null);
                 parent.setCursor(Cursor.getDefaultCursor());
             }
-            parent.repaint();
+            if (activelyEditingAssembly) {
+                // hovering can add or remove the debris feature of the edit layer
+                parent.repaint();
+            } else {
+                parent.repaintCursors();
+            }
         }
 
     }
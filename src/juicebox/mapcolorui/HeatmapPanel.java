@@ -34,6 +34,7 @@ import juicebox.MainWindow;
 import juicebox.assembly.AssemblyHeatmapHandler;
 import juicebox.assembly.AssemblyOperationExecutor;
 import juicebox.assembly.AssemblyScaffoldHandler;
+import juicebox.data.ColorScaleKey;
 import juicebox.data.Context;
 import juicebox.data.GUIMatrixZoomData;
 import juicebox.data.HiC;
@@ -48,6 +49,7 @@ import org.broad.igv.util.Pair;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.List;
@@ -66,6 +68,15 @@ public class HeatmapPanel extends JComponent {
     private final HeatmapClickListener clickListener;
     private long[] chromosomeBoundaries;
     private final BoundingBoxRenderer boundingBoxRenderer = new BoundingBoxRenderer(this);
+    private final CursorRenderer cursorRenderer = new CursorRenderer(this);
+    private final AnnotationLayerCache annotationLayerCache = new AnnotationLayerCache();
+    // retained image of the map, so moving a cursor or a zoom rectangle only repaints the damaged strips
+    private BufferedImage mapBuffer;
+    private double mapBufferScaleX, mapBufferScaleY;
+    private int mapBufferWidth, mapBufferHeight;
+    private Rectangle overlayDamage;
+    private boolean showCursors, showMouseAnnotations;
+    private Point drawnCursorPoint, drawnDiagonalCursorPoint;
 
     public HeatmapPanel(SuperAdapter superAdapter) {
         this.mainWindow = superAdapter.getMainWindow();
@@ -96,10 +107,94 @@ public class HeatmapPanel extends JComponent {
     @Override
     protected void paintComponent(Graphics g1) {
         Graphics2D g = (Graphics2D) g1;
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
         Rectangle clipBounds = g.getClipBounds();
+
+        if (isPaintingForPrint()) {
+            paintMap(g, clipBounds);
+            paintOverlay(g);
+            return;
+        }
+
+        AffineTransform transform = g.getTransform();
+        if (!canReuseMapBuffer(clipBounds, transform.getScaleX(), transform.getScaleY())) {
+            renderMapBuffer(transform.getScaleX(), transform.getScaleY());
+        }
+        g.drawImage(mapBuffer, clipBounds.x, clipBounds.y,
+                clipBounds.x + clipBounds.width, clipBounds.y + clipBounds.height,
+                (int) Math.floor(clipBounds.x * mapBufferScaleX), (int) Math.floor(clipBounds.y * mapBufferScaleY),
+                (int) Math.ceil((clipBounds.x + clipBounds.width) * mapBufferScaleX),
+                (int) Math.ceil((clipBounds.y + clipBounds.height) * mapBufferScaleY), null);
+        paintOverlay(g);
+    }
+
+    /**
+     * Repaint the given regions from the retained image of the map, for changes that only affect the overlay
+     * (cursors, zoom and selection rectangles). Must be called on the event dispatch thread.
+     */
+    public void repaintOverlay(Rectangle... damagedRegions) {
+        try {
+            for (Rectangle region : damagedRegions) {
+                overlayDamage = region;
+                paintImmediately(region);
+            }
+        } finally {
+            overlayDamage = null;
+        }
+    }
+
+    /**
+     * Repaint the strips under the cursors as last drawn and as currently set in HiC
+     */
+    public void repaintCursors() {
+        List<Rectangle> damagedRegions = cursorRenderer.getDamagedRegions(drawnCursorPoint, drawnDiagonalCursorPoint);
+        damagedRegions.addAll(cursorRenderer.getDamagedRegions(hic.getCursorPoint(), hic.getDiagonalCursorPoint()));
+        repaintOverlay(damagedRegions.toArray(new Rectangle[0]));
+    }
+
+    /**
+     * The map is only reused for paints of overlay damage; any other paint, e.g. after a repaint() of this panel
+     * or of the main window, renders it again
+     */
+    private boolean canReuseMapBuffer(Rectangle clipBounds, double scaleX, double scaleY) {
+        return overlayDamage != null && overlayDamage.contains(clipBounds) && mapBuffer != null
+                && mapBufferScaleX == scaleX && mapBufferScaleY == scaleY
+                && mapBufferWidth == getWidth() && mapBufferHeight == getHeight();
+    }
+
+    private void renderMapBuffer(double scaleX, double scaleY) {
+        int width = Math.max(1, getWidth());
+        int height = Math.max(1, getHeight());
+        // in device pixels, so the map stays sharp on high resolution displays
+        int bufferWidth = (int) Math.ceil(width * scaleX);
+        int bufferHeight = (int) Math.ceil(height * scaleY);
+        if (mapBuffer == null || mapBuffer.getWidth() != bufferWidth || mapBuffer.getHeight() != bufferHeight) {
+            GraphicsConfiguration configuration = getGraphicsConfiguration();
+            mapBuffer = configuration != null ? configuration.createCompatibleImage(bufferWidth, bufferHeight)
+                    : new BufferedImage(bufferWidth, bufferHeight, BufferedImage.TYPE_INT_RGB);
+        }
+        mapBufferScaleX = scaleX;
+        mapBufferScaleY = scaleY;
+        mapBufferWidth = getWidth();
+        mapBufferHeight = getHeight();
+
+        Graphics2D g = mapBuffer.createGraphics();
+        g.scale(scaleX, scaleY);
+        g.setClip(0, 0, width, height);
+        g.setBackground(getBackground());
+        g.setColor(getForeground());
+        g.setFont(getFont());
+        paintMap(g, g.getClipBounds());
+        g.dispose();
+    }
+
+    /**
+     * Everything but the overlay: tiles, grid and 2D annotations
+     */
+    private void paintMap(Graphics2D g, Rectangle clipBounds) {
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         g.clearRect(clipBounds.x, clipBounds.y, clipBounds.width, clipBounds.height);
+        showCursors = false;
+        showMouseAnnotations = false;
 
         if (JBGlobals.isDarkulaModeEnabled) {
             g.setColor(Color.darkGray);
@@ -151,7 +246,7 @@ public class HeatmapPanel extends JComponent {
         HeatmapRenderer renderer = new HeatmapRenderer(g, colorScaleHandler);
         boolean allTilesNull = tileManager.renderHiCTiles(renderer, binOriginX, binOriginY,
                 bRight, bBottom, zd, controlZd,
-                scaleFactor, this.getBounds(), hic, this, superAdapter);
+                scaleFactor, this.getBounds(), hic, this, superAdapter, isPaintingForPrint());
 
         boolean isWholeGenome = isWholeGenomeView(hic.getXContext(), hic.getYContext());
 
@@ -160,9 +255,7 @@ public class HeatmapPanel extends JComponent {
         if (isWholeGenome) {
             boundingBoxRenderer.drawAllByAllGrid(g, zd, showGridLines, binOriginX, binOriginY, scaleFactor);
         }
-        CursorRenderer cursorRenderer = new CursorRenderer(this);
-        cursorRenderer.drawCursors(g, hic.getCursorPoint(), hic.getDiagonalCursorPoint(),
-                binOriginX, binOriginY, scaleFactor, hic.getColorForRuler(), bRight, bBottom);
+        showCursors = true;
 
         g.setColor(color0);
 
@@ -178,36 +271,72 @@ public class HeatmapPanel extends JComponent {
             mouseHandler.clearFeaturePairs();
 
             final boolean activelyEditingAssembly = mouseHandler.getIsActivelyEditingAssembly();
-            List<AnnotationLayerHandler> handlers;
-            if (activelyEditingAssembly) {
-                // Only look at assembly layers if we're in assembly mode
-                handlers = superAdapter.getAssemblyLayerHandlers();
-            } else {
-                handlers = superAdapter.getAllLayers();
-            }
-
-            for (AnnotationLayerHandler handler : handlers) {
-                List<Feature2D> loops = handler.getNearbyFeatures(zd, zd.getChr1Idx(), zd.getChr2Idx(),
-                        centerX, centerY, Feature2DHandler.numberOfLoopsToFind, binOriginX, binOriginY, scaleFactor);
-                List<Feature2D> cLoopsReflected = new ArrayList<>();
-                for (Feature2D feature2D : loops) {
-                    if (zd.getChr1Idx() == zd.getChr2Idx() && !feature2D.isOnDiagonal()) {
-                        cLoopsReflected.add(feature2D.reflectionAcrossDiagonal());
-                    }
+            final List<Feature2D> highlightedFeatures = mouseHandler.getHighlightedFeature();
+            final boolean showFeatureHighlight = mouseHandler.getShouldShowHighlight();
+            if (activelyEditingAssembly || isPaintingForPrint()) {
+                // assembly edits change features in place, and exports should keep them as vector graphics,
+                // so these are drawn directly rather than from the cache
+                List<AnnotationLayerHandler> handlers;
+                if (activelyEditingAssembly) {
+                    // Only look at assembly layers if we're in assembly mode
+                    handlers = superAdapter.getAssemblyLayerHandlers();
+                    annotationLayerCache.invalidate();
+                } else {
+                    handlers = superAdapter.getAllLayers();
                 }
 
-                loops.addAll(cLoopsReflected);
-                mouseHandler.addAllFeatures(handler, loops, zd,
-                        binOriginX, binOriginY, scaleFactor, activelyEditingAssembly);
+                for (AnnotationLayerHandler handler : handlers) {
+                    List<Feature2D> loops = handler.getNearbyFeatures(zd, zd.getChr1Idx(), zd.getChr2Idx(),
+                            centerX, centerY, Feature2DHandler.numberOfLoopsToFind, binOriginX, binOriginY, scaleFactor);
+                    List<Feature2D> cLoopsReflected = new ArrayList<>();
+                    for (Feature2D feature2D : loops) {
+                        if (zd.getChr1Idx() == zd.getChr2Idx() && !feature2D.isOnDiagonal()) {
+                            cLoopsReflected.add(feature2D.reflectionAcrossDiagonal());
+                        }
+                    }
 
-                final List<Feature2D> highlightedFeatures = mouseHandler.getHighlightedFeature();
-                final boolean showFeatureHighlight = mouseHandler.getShouldShowHighlight();
+                    loops.addAll(cLoopsReflected);
+                    mouseHandler.addAllFeatures(handler, loops, zd,
+                            binOriginX, binOriginY, scaleFactor, activelyEditingAssembly);
 
-                FeatureRenderer.render(g2, handler, loops, zd, binOriginX, binOriginY, scaleFactor,
-                        highlightedFeatures, showFeatureHighlight, this.getWidth(), this.getHeight());
+                    FeatureRenderer.render(g2, handler, loops, zd, binOriginX, binOriginY, scaleFactor,
+                            highlightedFeatures, showFeatureHighlight, this.getWidth(), this.getHeight());
+                }
+            } else {
+                annotationLayerCache.render(g2, superAdapter.getAllLayers(), zd, binOriginX, binOriginY, scaleFactor,
+                        centerX, centerY, this.getWidth(), this.getHeight(), highlightedFeatures, showFeatureHighlight,
+                        mouseHandler);
             }
-            mouseHandler.renderMouseAnnotations(g2);
             g2.dispose();
+            showMouseAnnotations = true;
+        }
+
+        if (JBGlobals.showPerformanceHUD && !isPaintingForPrint()) {
+            tileManager.drawPerformanceHUD(g);
+        }
+    }
+
+    /**
+     * Cursors and the zoom and selection rectangles, drawn over the map on every paint
+     */
+    private void paintOverlay(Graphics2D g) {
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        drawnCursorPoint = null;
+        drawnDiagonalCursorPoint = null;
+        if (showCursors) {
+            drawnCursorPoint = hic.getCursorPoint();
+            drawnDiagonalCursorPoint = hic.getDiagonalCursorPoint();
+            final double scaleFactor = hic.getScaleFactor();
+            double binOriginX = hic.getXContext().getBinOrigin();
+            double binOriginY = hic.getYContext().getBinOrigin();
+            Color color0 = g.getColor();
+            cursorRenderer.drawCursors(g, drawnCursorPoint, drawnDiagonalCursorPoint, binOriginX, binOriginY,
+                    scaleFactor, hic.getColorForRuler(), binOriginX + getWidth() / scaleFactor,
+                    binOriginY + getHeight() / scaleFactor);
+            g.setColor(color0);
+        }
+        if (showMouseAnnotations) {
+            mouseHandler.renderMouseAnnotations(g);
         }
     }
 
@@ -229,14 +358,8 @@ public class HeatmapPanel extends JComponent {
         int wh = Math.max(maxBinCountX, maxBinCountY); // todo assumption for thumbnail
         //if (wh > 1000) wh=1000; // this can happen with single resolution hic files - breaks thumbnail localization
 
-        BufferedImage image = (BufferedImage) createImage(wh, wh);
-        Graphics2D g = image.createGraphics();
-        if (JBGlobals.isDarkulaModeEnabled) {
-            g.setColor(Color.darkGray);
-            g.fillRect(0, 0, wh, wh);
-        }
-
-        HeatmapRenderer renderer = new HeatmapRenderer(g, colorScaleHandler);
+        BufferedImage image = RasterHeatmapRenderer.createTileImage(wh, wh);
+        HeatmapRenderer renderer = new RasterHeatmapRenderer(image, colorScaleHandler);
         boolean success = renderer.render(0,
                 0,
                 maxBinCountX,
@@ -286,6 +409,15 @@ public class HeatmapPanel extends JComponent {
 
     public void clearTileCache() {
         tileManager.clearTileCache();
+        annotationLayerCache.invalidate();
+    }
+
+    public void setTileCacheMaxBytes(long maxBytes) {
+        tileManager.setTileCacheMaxBytes(maxBytes);
+    }
+
+    public String getTileCacheStatistics() {
+        return tileManager.getTileCacheStatistics();
     }
 
     public void launchColorSelectionMenu(Pair<Rectangle, Feature2D> selectedFeaturePair) {
@@ -296,6 +428,7 @@ public class HeatmapPanel extends JComponent {
         Color c = colorChooser.getColor();
         if (c != null) {
             selectedFeaturePair.getSecond().setColor(c);
+            annotationLayerCache.invalidate();
         }
     }
 
@@ -357,7 +490,7 @@ public class HeatmapPanel extends JComponent {
         clearTileCache();
     }
 
-    public void setNewDisplayRange(MatrixType displayOption, double min, double max, String key) {
+    public void setNewDisplayRange(MatrixType displayOption, double min, double max, ColorScaleKey key) {
         colorScaleHandler.setNewDisplayRange(displayOption, min, max, key);
         clearTileCache();
         repaint();
@@ -26,13 +26,14 @@ package juicebox.mapcolorui;
 
 import javastraw.matrices.BasicMatrix;
 import javastraw.reader.block.Block;
-import javastraw.reader.block.ContactRecord;
 import javastraw.reader.expected.ExpectedValueFunction;
 import javastraw.reader.type.MatrixType;
 import javastraw.reader.type.NormalizationType;
 import juicebox.JBGlobals;
+import juicebox.data.ColorScaleKey;
+import juicebox.data.CompactBlock;
 import juicebox.data.GUIMatrixZoomData;
-import org.broad.igv.renderer.ColorScale;
+import juicebox.data.ViewToken;
 
 import java.awt.*;
 import java.util.List;
@@ -48,30 +49,95 @@ public class HeatmapRenderer {
     protected static final int PIXEL_WIDTH = 1, PIXEL_HEIGHT = 1;
     private final ColorScaleHandler colorScaleHandler;
     private final Graphics2D g;
+    private Color currentColor;
+    // the expected value tables used last, typically one each for the observed and control maps
+    private ExpectedValueTable expectedTable, otherExpectedTable;
+    private int expectedTableLength = 0;
+    private ViewToken viewToken = ViewToken.NEVER_SUPERSEDED;
+    private RenderTimings timings;
+    private PixelPooling pooling = PixelPooling.NONE;
+    private int poolFactor = 1;
+    private boolean propagateReadErrors = false;
 
     public HeatmapRenderer(Graphics2D g, ColorScaleHandler colorScaleHandler) {
         this.g = g;
         this.colorScaleHandler = colorScaleHandler;
     }
 
-    public static String getColorScaleCacheKey(GUIMatrixZoomData zd, MatrixType displayOption, NormalizationType obsNorm, NormalizationType ctrlNorm) {
+    /**
+     * Checked before reading blocks and before computing the color scale; once superseded, render() returns
+     * false without doing either
+     */
+    public void setViewToken(ViewToken viewToken) {
+        this.viewToken = viewToken;
+    }
+
+    /**
+     * Let an exception reading the blocks escape render() instead of rendering the region as empty, so that a
+     * caller that caches the result can retry rather than cache a blank tile and a color scale without data
+     */
+    void setPropagateReadErrors(boolean propagateReadErrors) {
+        this.propagateReadErrors = propagateReadErrors;
+    }
+
+    /**
+     * Collect timings of the next renders, for the performance HUD
+     */
+    void setTimings(RenderTimings timings) {
+        this.timings = timings;
+    }
+
+    /**
+     * Render one pixel per poolFactor x poolFactor bins, combining the bins as given by the pooling mode.
+     * Only applies to the display options accepted by PixelPooling.isPoolable; the size passed to render()
+     * stays in bins.
+     */
+    void setPooling(PixelPooling pooling, int poolFactor) {
+        this.pooling = pooling;
+        this.poolFactor = pooling == PixelPooling.NONE ? 1 : Math.max(1, poolFactor);
+    }
+
+    public static ColorScaleKey getColorScaleCacheKey(GUIMatrixZoomData zd, MatrixType displayOption, NormalizationType obsNorm, NormalizationType ctrlNorm) {
         return zd.getColorScaleKey(displayOption, obsNorm, ctrlNorm);
     }
 
-    @SuppressWarnings("SuspiciousNameCombination")
     public boolean render(int originX, int originY, int width, int height,
                           final GUIMatrixZoomData zd, final GUIMatrixZoomData controlZD,
                           final MatrixType displayOption,
                           final NormalizationType observedNormalizationType, final NormalizationType controlNormalizationType,
                           final ExpectedValueFunction df, final ExpectedValueFunction controlDF,
                           boolean isImportant) {
+        if (timings == null) {
+            return renderMap(originX, originY, width, height, zd, controlZD, displayOption,
+                    observedNormalizationType, controlNormalizationType, df, controlDF, isImportant);
+        }
+        long startNanos = System.nanoTime();
+        long fetchAndLookupNanos = timings.blockFetchNanos + timings.colorLookupNanos;
+        boolean rendered = renderMap(originX, originY, width, height, zd, controlZD, displayOption,
+                observedNormalizationType, controlNormalizationType, df, controlDF, isImportant);
+        // whatever was not spent fetching blocks or looking up the color scale went into turning records into pixels
+        timings.transformNanos += System.nanoTime() - startNanos
+                - (timings.blockFetchNanos + timings.colorLookupNanos - fetchAndLookupNanos);
+        return rendered;
+    }
+
+    @SuppressWarnings("SuspiciousNameCombination")
+    private boolean renderMap(int originX, int originY, int width, int height,
+                              final GUIMatrixZoomData zd, final GUIMatrixZoomData controlZD,
+                              final MatrixType displayOption,
+                              final NormalizationType observedNormalizationType, final NormalizationType controlNormalizationType,
+                              final ExpectedValueFunction df, final ExpectedValueFunction controlDF,
+                              boolean isImportant) {
         if (g != null) {
             g.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_SPEED);
             g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
         }
 
+        if (viewToken.isSuperseded()) return false;
+
         int chr1 = zd.getChr1Idx();
         int chr2 = zd.getChr2Idx();
+        expectedTableLength = (int) Math.max(zd.getXGridAxis().getBinCount(), zd.getYGridAxis().getBinCount());
         int x = originX;
         int y = originY;
 
@@ -93,8 +159,8 @@ public class HeatmapRenderer {
         int maxX = x + width - 1;
         int maxY = y + height - 1;
 
-        String key = zd.getColorScaleKey(displayOption, observedNormalizationType, controlNormalizationType);
-        String controlKey = zd.getColorScaleKey(displayOption, observedNormalizationType, controlNormalizationType);
+        ColorScaleKey key = zd.getColorScaleKey(displayOption, observedNormalizationType, controlNormalizationType);
+        ColorScaleKey controlKey = zd.getColorScaleKey(displayOption, observedNormalizationType, controlNormalizationType);
 
         float pseudoCountObs = PSEUDO_COUNT;
         float pseudoCountCtrl = PSEUDO_COUNT;
@@ -117,33 +183,33 @@ public class HeatmapRenderer {
         } else if (displayOption == MatrixType.CONTROL) {
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
             if (controlZD == null || ctrlBlocks == null) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(controlKey, displayOption, isWholeGenome, ctrlBlocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(controlKey, displayOption, isWholeGenome, ctrlBlocks, 1f);
 
             renderSimpleMap(ctrlBlocks, cs, width, height, sameChr, originX, originY);
         } else if (displayOption == MatrixType.LOGC) {
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
             if (controlZD == null || ctrlBlocks == null) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(controlKey, displayOption, isWholeGenome, ctrlBlocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(controlKey, displayOption, isWholeGenome, ctrlBlocks, 1f);
 
             renderSimpleLogMap(ctrlBlocks, cs, width, height, sameChr, originX, originY);
         } else if (displayOption == MatrixType.OECTRLV2 || displayOption == MatrixType.OECTRL) {
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
             if (controlZD == null || ctrlBlocks == null) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(controlKey, displayOption, isWholeGenome, ctrlBlocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(controlKey, displayOption, isWholeGenome, ctrlBlocks, 1f);
 
             renderObservedOverExpectedMap(chr1, ctrlBlocks, controlDF, controlZD,
                     cs, sameChr, originX, originY, width, height, 0);
         } else if (displayOption == MatrixType.OECTRLP1V2 || displayOption == MatrixType.OECTRLP1) {
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
             if (controlZD == null || ctrlBlocks == null) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(controlKey, displayOption, isWholeGenome, ctrlBlocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(controlKey, displayOption, isWholeGenome, ctrlBlocks, 1f);
 
             renderObservedOverExpectedMap(chr1, ctrlBlocks, controlDF, controlZD,
                     cs, sameChr, originX, originY, width, height, pseudoCountCtrl);
         } else if (displayOption == MatrixType.LOGCEO) {
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
             if (controlZD == null || ctrlBlocks == null) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(controlKey, displayOption, isWholeGenome, ctrlBlocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(controlKey, displayOption, isWholeGenome, ctrlBlocks, 1f);
 
             renderLogObservedBaseExpectedMap(chr1, ctrlBlocks, controlDF, controlZD, cs,
                     sameChr, originX, originY, width, height);
@@ -157,7 +223,7 @@ public class HeatmapRenderer {
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
             if (blocks == null || ctrlBlocks == null) return false;
             if (blocks.isEmpty() && ctrlBlocks.isEmpty()) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, ctrlBlocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, blocks, ctrlBlocks, 1f);
 
             if (displayOption == MatrixType.LOGEOVS) {
                 renderLogObsOverExpVSMap(chr1, blocks, ctrlBlocks, df, controlDF,
@@ -176,25 +242,25 @@ public class HeatmapRenderer {
                 if (controlZD == null) return false;
                 if (sameChr && (df == null || controlDF == null)) return false;
                 renderOERatioMap(blocks, ctrlBlocks, zd, controlZD, df, controlDF, originX, originY,
-                        width, height, 0, 0, cs, sameChr, controlNormalizationType, chr1);
+                        width, height, 0, 0, cs, sameChr, chr1);
             } else if (displayOption == MatrixType.OERATIOP1V2 || displayOption == MatrixType.OERATIOP1) {
                 if (controlZD == null) return false;
                 if (sameChr && (df == null || controlDF == null)) return false;
                 renderOERatioMap(blocks, ctrlBlocks, zd, controlZD, df, controlDF, originX, originY,
-                        width, height, pseudoCountObs, pseudoCountCtrl, cs, sameChr, controlNormalizationType, chr1);
+                        width, height, pseudoCountObs, pseudoCountCtrl, cs, sameChr, chr1);
             }
 
         } else if (displayOption == MatrixType.EXPECTED) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             if (blocks == null) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, blocks, 1f);
 
             renderExpectedMap(zd, df, sameChr, cs, originX, originY, width, height, chr1);
         } else if (displayOption == MatrixType.OEV2 || displayOption == MatrixType.OE) {
 
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             if (blocks == null) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, blocks, 1f);
 
             renderObservedOverExpectedMap(chr1, blocks, df, zd,
                     cs, sameChr, originX, originY, width, height, 0);
@@ -204,14 +270,14 @@ public class HeatmapRenderer {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             if (blocks == null) return false;
 
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, blocks, 1f);
 
             renderObservedOverExpectedMap(chr1, blocks, df, zd,
                     cs, sameChr, originX, originY, width, height, pseudoCountObs);
         } else if (displayOption == MatrixType.LOGEO) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             if (blocks == null) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, blocks, 1f);
 
             renderLogObservedBaseExpectedMap(chr1, blocks, df, zd,
                     cs, sameChr, originX, originY, width, height);
@@ -220,7 +286,7 @@ public class HeatmapRenderer {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             if (blocks == null) return false;
 
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, blocks, 1f);
 
             renderNewBaseEMap(chr1, blocks, df, zd,
                     cs, sameChr, originX, originY, width, height);
@@ -228,7 +294,7 @@ public class HeatmapRenderer {
         } else if (displayOption == MatrixType.EXPLOGCEO) {
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
             if (ctrlBlocks == null || controlZD == null) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, ctrlBlocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, ctrlBlocks, 1f);
             renderNewBaseEMap(chr1, ctrlBlocks, controlDF, controlZD,
                     cs, sameChr, originX, originY, width, height);
 
@@ -237,69 +303,69 @@ public class HeatmapRenderer {
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
             if (blocks == null || ctrlBlocks == null || controlZD == null) return false;
             if (sameChr && (df == null || controlDF == null)) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, blocks, 1f);
 
             renderLogRatioWithExpMap(blocks, ctrlBlocks, zd, controlZD, chr1, df, controlDF,
                     originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
         } else if (displayOption == MatrixType.RATIOV2 || displayOption == MatrixType.RATIO) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
             if (blocks == null || ctrlBlocks == null || controlZD == null) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, blocks, 1f);
 
             renderRatioWithAvgMap(blocks, ctrlBlocks, zd, controlZD,
                     0, 0, originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
         } else if (displayOption == MatrixType.RATIOP1V2 || displayOption == MatrixType.RATIOP1) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
             if (blocks == null || ctrlBlocks == null || controlZD == null) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, blocks, 1f);
 
             renderRatioWithAvgMap(blocks, ctrlBlocks, zd, controlZD,
                     pseudoCountObs, pseudoCountCtrl, originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
         } else if (displayOption == MatrixType.LOGRATIOV2 || displayOption == MatrixType.LOGRATIO) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
             if (blocks == null || ctrlBlocks == null || controlZD == null) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, blocks, 1f);
 
             renderLogRatioWithAvgMap(blocks, ctrlBlocks, zd, controlZD,
                     originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
         } else if (displayOption == MatrixType.RATIO0V2 || displayOption == MatrixType.RATIO0) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
             if (blocks == null || ctrlBlocks == null || controlZD == null) return false;
             if (sameChr && (df == null || controlDF == null)) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, blocks, 1f);
 
             renderRatioWithExpMap(blocks, ctrlBlocks, zd, controlZD, chr1, df, controlDF,
                     0, 0, originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
         } else if (displayOption == MatrixType.RATIO0P1V2 || displayOption == MatrixType.RATIO0P1) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
             if (blocks == null || ctrlBlocks == null || controlZD == null) return false;
             if (sameChr && (df == null || controlDF == null)) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, blocks, 1f);
 
             renderRatioWithExpMap(blocks, ctrlBlocks, zd, controlZD, chr1, df, controlDF,
                     pseudoCountObs, pseudoCountCtrl, originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
         } else if (displayOption == MatrixType.LOG) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             if (blocks == null) return false;
 
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, blocks, 1f);
 
             renderSimpleLogMap(blocks, cs, width, height, sameChr, originX, originY);
         } else if (displayOption == MatrixType.OBSERVED) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             if (blocks == null) return false;
-            ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, 1f);
+            ColorLookupTable cs = getColorLookupTable(key, displayOption, isWholeGenome, blocks, 1f);
 
             renderSimpleMap(blocks, cs, width, height, sameChr, originX, originY);
 
@@ -314,8 +380,8 @@ public class HeatmapRenderer {
                                           GUIMatrixZoomData zd, GUIMatrixZoomData controlZD, int chr1,
                                           ExpectedValueFunction df, ExpectedValueFunction controlDF,
                                           int originX, int originY, int width, int height,
-                                          ColorScale cs, boolean sameChr, NormalizationType controlNormalizationType) {
-        Map<String, Block> controlBlocks = convertBlockListToMap(ctrlBlocks, controlZD);
+                                          ColorLookupTable cs, boolean sameChr) {
+        Map<Integer, CompactBlock> controlBlocks = convertBlockListToMap(ctrlBlocks);
 
         float averageCount = (float) zd.getAverageCount();
         float ctrlAverageCount = controlZD == null ? 1 : (float) controlZD.getAverageCount();
@@ -323,57 +389,59 @@ public class HeatmapRenderer {
         if (sameChr) {
 
             for (Block b : blocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
+                CompactBlock block = CompactBlock.asCompact(b);
+                CompactBlock ctrlBlock = controlBlocks.get(b.getNumber());
+                if (ctrlBlock == null) continue;
+                int j = 0;
 
-                    Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
+                for (int i = 0; i < block.size(); i++) {
+                    int binX = block.getBinX(i);
+                    int binY = block.getBinY(i);
+                    j = seekContact(ctrlBlock, j, binX, binY);
+                    if (isContactAt(ctrlBlock, j, binX, binY)) {
+                        float num = block.getCounts(i);
+                        float den = ctrlBlock.getCounts(j);
 
-                    for (ContactRecord rec : recs) {
-                        ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                        if (ctrlRecord != null) {
-                            float num = rec.getCounts();
-                            float den = ctrlRecord.getCounts();
+                        float obsExpected = getExpectedValue(df, chr1, binX, binY);
+                        float ctrlExpected = getExpectedValue(controlDF, chr1, binX, binY);
 
-                            float obsExpected = getExpectedValue(df, chr1, rec);
-                            float ctrlExpected = getExpectedValue(controlDF, chr1, rec);
+                        if (logPainting(cs, num, den, obsExpected, ctrlExpected)) continue;
 
-                            if (logPainting(cs, num, den, obsExpected, ctrlExpected)) continue;
-
-                            intraPainting(originX, originY, width, height, rec);
-                        }
+                        intraPainting(originX, originY, width, height, binX, binY);
                     }
                 }
             }
         } else {
             for (Block b : blocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
-
-                    Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
+                CompactBlock block = CompactBlock.asCompact(b);
+                CompactBlock ctrlBlock = controlBlocks.get(b.getNumber());
+                if (ctrlBlock == null) continue;
+                int j = 0;
 
-                    float obsExpected = (averageCount > 0 ? averageCount : 1);
-                    float ctrlExpected = (ctrlAverageCount > 0 ? ctrlAverageCount : 1);
+                float obsExpected = (averageCount > 0 ? averageCount : 1);
+                float ctrlExpected = (ctrlAverageCount > 0 ? ctrlAverageCount : 1);
 
-                    for (ContactRecord rec : recs) {
-                        ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                        if (ctrlRecord != null) {
-                            float num = rec.getCounts();
-                            float den = ctrlRecord.getCounts();
+                for (int i = 0; i < block.size(); i++) {
+                    int binX = block.getBinX(i);
+                    int binY = block.getBinY(i);
+                    j = seekContact(ctrlBlock, j, binX, binY);
+                    if (isContactAt(ctrlBlock, j, binX, binY)) {
+                        float num = block.getCounts(i);
+                        float den = ctrlBlock.getCounts(j);
 
-                            if (logPainting(cs, num, den, obsExpected, ctrlExpected)) continue;
+                        if (logPainting(cs, num, den, obsExpected, ctrlExpected)) continue;
 
-                            aboveDiagonalPainting(originX, originY, width, height, rec);
-                        }
+                        aboveDiagonalPainting(originX, originY, width, height, binX, binY);
                     }
                 }
             }
         }
     }
 
-    private Map<String, Block> convertBlockListToMap(List<Block> ctrlBlocks, GUIMatrixZoomData controlZD) {
-        Map<String, Block> controlBlocks = new HashMap<>();
+    private Map<Integer, CompactBlock> convertBlockListToMap(List<Block> ctrlBlocks) {
+        Map<Integer, CompactBlock> controlBlocks = new HashMap<>();
         for (Block b : ctrlBlocks) {
-            controlBlocks.put(controlZD.getNormLessBlockKey(b), b);
+            controlBlocks.put(b.getNumber(), CompactBlock.asCompact(b));
         }
         return controlBlocks;
     }
@@ -381,25 +449,27 @@ public class HeatmapRenderer {
     private void renderLogRatioWithAvgMap(List<Block> blocks, List<Block> ctrlBlocks,
                                           GUIMatrixZoomData zd, GUIMatrixZoomData controlZD,
                                           int originX, int originY, int width, int height,
-                                          ColorScale cs, boolean sameChr, NormalizationType controlNormalizationType) {
+                                          ColorLookupTable cs, boolean sameChr) {
         float averageCount = (float) zd.getAverageCount();
         float ctrlAverageCount = controlZD == null ? 1 : (float) controlZD.getAverageCount();
 
-        Map<String, Block> controlBlocks = convertBlockListToMap(ctrlBlocks, controlZD);
+        Map<Integer, CompactBlock> controlBlocks = convertBlockListToMap(ctrlBlocks);
 
         for (Block b : blocks) {
-            Collection<ContactRecord> recs = b.getContactRecords();
-
-            Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
-
-            if (recs != null) {
-                for (ContactRecord rec : recs) {
-                    ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                    if (ctrlRecord != null) {
-                        float num = (float) Math.log(rec.getCounts() / averageCount + 1);
-                        float den = (float) Math.log(ctrlRecord.getCounts() / ctrlAverageCount + 1);
-                        ratioPainting(originX, originY, width, height, cs, sameChr, rec, num, den);
-                    }
+            CompactBlock block = CompactBlock.asCompact(b);
+
+            CompactBlock ctrlBlock = controlBlocks.get(b.getNumber());
+            if (ctrlBlock == null) continue;
+            int j = 0;
+
+            for (int i = 0; i < block.size(); i++) {
+                int binX = block.getBinX(i);
+                int binY = block.getBinY(i);
+                j = seekContact(ctrlBlock, j, binX, binY);
+                if (isContactAt(ctrlBlock, j, binX, binY)) {
+                    float num = (float) Math.log(block.getCounts(i) / averageCount + 1);
+                    float den = (float) Math.log(ctrlBlock.getCounts(j) / ctrlAverageCount + 1);
+                    ratioPainting(originX, originY, width, height, cs, sameChr, binX, binY, num, den);
                 }
             }
         }
@@ -410,23 +480,25 @@ public class HeatmapRenderer {
                                        int chr1, ExpectedValueFunction df, ExpectedValueFunction controlDF,
                                        float pseudoCountObs, float pseudoCountCtrl,
                                        int originX, int originY, int width, int height,
-                                       ColorScale cs, boolean sameChr, NormalizationType controlNormalizationType) {
+                                       ColorLookupTable cs, boolean sameChr) {
 
-        Map<String, Block> controlBlocks = convertBlockListToMap(ctrlBlocks, controlZD);
+        Map<Integer, CompactBlock> controlBlocks = convertBlockListToMap(ctrlBlocks);
 
         for (Block b : blocks) {
-            Collection<ContactRecord> recs = b.getContactRecords();
-
-            Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
-
-            if (recs != null) {
-                for (ContactRecord rec : recs) {
-                    ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                    if (ctrlRecord != null) {
-                        float num = ((rec.getCounts() + pseudoCountObs) / (getExpectedValue(df, chr1, 0, 0) + pseudoCountObs));
-                        float den = ((ctrlRecord.getCounts() + pseudoCountCtrl) / (getExpectedValue(controlDF, chr1, 0, 0) + pseudoCountCtrl));
-                        ratioPainting(originX, originY, width, height, cs, sameChr, rec, num, den);
-                    }
+            CompactBlock block = CompactBlock.asCompact(b);
+
+            CompactBlock ctrlBlock = controlBlocks.get(b.getNumber());
+            if (ctrlBlock == null) continue;
+            int j = 0;
+
+            for (int i = 0; i < block.size(); i++) {
+                int binX = block.getBinX(i);
+                int binY = block.getBinY(i);
+                j = seekContact(ctrlBlock, j, binX, binY);
+                if (isContactAt(ctrlBlock, j, binX, binY)) {
+                    float num = ((block.getCounts(i) + pseudoCountObs) / (getExpectedValue(df, chr1, 0, 0) + pseudoCountObs));
+                    float den = ((ctrlBlock.getCounts(j) + pseudoCountCtrl) / (getExpectedValue(controlDF, chr1, 0, 0) + pseudoCountCtrl));
+                    ratioPainting(originX, originY, width, height, cs, sameChr, binX, binY, num, den);
                 }
             }
         }
@@ -436,72 +508,82 @@ public class HeatmapRenderer {
                                        GUIMatrixZoomData zd, GUIMatrixZoomData controlZD,
                                        float pseudoCountObs, float pseudoCountCtrl,
                                        int originX, int originY, int width, int height,
-                                       ColorScale cs, boolean sameChr, NormalizationType controlNormalizationType) {
+                                       ColorLookupTable cs, boolean sameChr) {
         float averageCount = (float) zd.getAverageCount();
         float ctrlAverageCount = controlZD == null ? 1 : (float) controlZD.getAverageCount();
 
-        Map<String, Block> controlBlocks = convertBlockListToMap(ctrlBlocks, controlZD);
+        Map<Integer, CompactBlock> controlBlocks = convertBlockListToMap(ctrlBlocks);
 
         for (Block b : blocks) {
-            Collection<ContactRecord> recs = b.getContactRecords();
-
-            Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
-
-            if (recs != null) {
-                for (ContactRecord rec : recs) {
-                    ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                    if (ctrlRecord != null) {
-                        float num = (rec.getCounts() + pseudoCountObs) / (averageCount + pseudoCountObs);
-                        float den = (ctrlRecord.getCounts() + pseudoCountCtrl) / (ctrlAverageCount + pseudoCountCtrl);
-                        ratioPainting(originX, originY, width, height, cs, sameChr, rec, num, den);
-                    }
+            CompactBlock block = CompactBlock.asCompact(b);
+
+            CompactBlock ctrlBlock = controlBlocks.get(b.getNumber());
+            if (ctrlBlock == null) continue;
+            int j = 0;
+
+            for (int i = 0; i < block.size(); i++) {
+                int binX = block.getBinX(i);
+                int binY = block.getBinY(i);
+                j = seekContact(ctrlBlock, j, binX, binY);
+                if (isContactAt(ctrlBlock, j, binX, binY)) {
+                    float num = (block.getCounts(i) + pseudoCountObs) / (averageCount + pseudoCountObs);
+                    float den = (ctrlBlock.getCounts(j) + pseudoCountCtrl) / (ctrlAverageCount + pseudoCountCtrl);
+                    ratioPainting(originX, originY, width, height, cs, sameChr, binX, binY, num, den);
                 }
             }
         }
     }
 
-    private Map<String, ContactRecord> linkRecords(GUIMatrixZoomData zd, NormalizationType controlNormalizationType, Map<String, Block> controlBlocks, Block b) {
-        Map<String, ContactRecord> controlRecords = new HashMap<>();
-        Block cb = controlBlocks.get(zd.getNormLessBlockKey(b));
-        if (cb != null) {
-            for (ContactRecord ctrlRec : cb.getContactRecords()) {
-                controlRecords.put(ctrlRec.getKey(controlNormalizationType), ctrlRec);
-            }
+    /**
+     * Walks the contacts of a control block in their sorted order, for joining them with the contacts of the
+     * observed block of the same number, which are visited in the same order, without an index or allocation.
+     *
+     * @return the position of the first control contact at or after the given bins
+     */
+    private static int seekContact(CompactBlock ctrlBlock, int j, int binX, int binY) {
+        while (j < ctrlBlock.size() && (ctrlBlock.getBinX(j) < binX
+                || (ctrlBlock.getBinX(j) == binX && ctrlBlock.getBinY(j) < binY))) {
+            j++;
         }
-        return controlRecords;
+        return j;
+    }
+
+    private static boolean isContactAt(CompactBlock ctrlBlock, int j, int binX, int binY) {
+        return j < ctrlBlock.size() && ctrlBlock.getBinX(j) == binX && ctrlBlock.getBinY(j) == binY;
     }
 
     private void renderOERatioMap(List<Block> blocks, List<Block> ctrlBlocks,
                                   GUIMatrixZoomData zd, GUIMatrixZoomData controlZD,
                                   ExpectedValueFunction df, ExpectedValueFunction controlDF,
                                   int originX, int originY, int width, int height,
-                                  float pseudoCountObs, float pseudoCountCtrl, ColorScale cs, boolean sameChr,
-                                  NormalizationType controlNormalizationType, int chr1) {
-        Map<String, Block> controlBlocks = convertBlockListToMap(ctrlBlocks, controlZD);
+                                  float pseudoCountObs, float pseudoCountCtrl, ColorLookupTable cs, boolean sameChr,
+                                  int chr1) {
+        Map<Integer, CompactBlock> controlBlocks = convertBlockListToMap(ctrlBlocks);
 
         if (sameChr) {
             for (Block b : blocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
-
-                    Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
-
-                    for (ContactRecord rec : recs) {
-                        ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                        if (ctrlRecord != null) {
-                            float num = rec.getCounts() + pseudoCountObs;
-                            float den = ctrlRecord.getCounts() + pseudoCountCtrl;
-
-                            float obsExpected = getExpectedValue(df, chr1, rec) + pseudoCountObs;
-                            float ctrlExpected = getExpectedValue(controlDF, chr1, rec) + pseudoCountCtrl;
-
-                            float score = (num / obsExpected) / (den / ctrlExpected);
-                            if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                CompactBlock block = CompactBlock.asCompact(b);
+                CompactBlock ctrlBlock = controlBlocks.get(b.getNumber());
+                if (ctrlBlock == null) continue;
+                int j = 0;
+
+                for (int i = 0; i < block.size(); i++) {
+                    int binX = block.getBinX(i);
+                    int binY = block.getBinY(i);
+                    j = seekContact(ctrlBlock, j, binX, binY);
+                    if (isContactAt(ctrlBlock, j, binX, binY)) {
+                        float num = block.getCounts(i) + pseudoCountObs;
+                        float den = ctrlBlock.getCounts(j) + pseudoCountCtrl;
+
+                        float obsExpected = getExpectedValue(df, chr1, binX, binY) + pseudoCountObs;
+                        float ctrlExpected = getExpectedValue(controlDF, chr1, binX, binY) + pseudoCountCtrl;
+
+                        float score = (num / obsExpected) / (den / ctrlExpected);
+                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                            setColor(cs.getColor(score));
+                        setColor(cs.getARGB(score));
 
-                            intraPainting(originX, originY, width, height, rec);
-                        }
+                        intraPainting(originX, originY, width, height, binX, binY);
                     }
                 }
             }
@@ -514,24 +596,25 @@ public class HeatmapRenderer {
             ctrlExpected += pseudoCountCtrl;
 
             for (Block b : blocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
-
-                    Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
-
-                    for (ContactRecord rec : recs) {
-                        ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                        if (ctrlRecord != null) {
-                            float num = rec.getCounts() + pseudoCountObs;
-                            float den = ctrlRecord.getCounts() + pseudoCountCtrl;
-
-                            float score = (num / obsExpected) / (den / ctrlExpected);
-                            if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                CompactBlock block = CompactBlock.asCompact(b);
+                CompactBlock ctrlBlock = controlBlocks.get(b.getNumber());
+                if (ctrlBlock == null) continue;
+                int j = 0;
+
+                for (int i = 0; i < block.size(); i++) {
+                    int binX = block.getBinX(i);
+                    int binY = block.getBinY(i);
+                    j = seekContact(ctrlBlock, j, binX, binY);
+                    if (isContactAt(ctrlBlock, j, binX, binY)) {
+                        float num = block.getCounts(i) + pseudoCountObs;
+                        float den = ctrlBlock.getCounts(j) + pseudoCountCtrl;
+
+                        float score = (num / obsExpected) / (den / ctrlExpected);
+                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                            setColor(cs.getColor(score));
+                        setColor(cs.getARGB(score));
 
-                            aboveDiagonalPainting(originX, originY, width, height, rec);
-                        }
+                        aboveDiagonalPainting(originX, originY, width, height, binX, binY);
                     }
                 }
             }
@@ -539,22 +622,22 @@ public class HeatmapRenderer {
     }
 
     private void renderNewBaseEMap(int chr1, List<Block> blocks, ExpectedValueFunction df, GUIMatrixZoomData zd,
-                                   ColorScale cs, boolean sameChr, int originX, int originY, int width, int height) {
+                                   ColorLookupTable cs, boolean sameChr, int originX, int originY, int width, int height) {
         if (sameChr) {
             if (df != null) {
                 for (Block b : blocks) {
-                    Collection<ContactRecord> recs = b.getContactRecords();
-                    if (recs != null) {
-                        for (ContactRecord rec : recs) {
-                            float expected = getExpectedValue(df, chr1, rec);
+                    CompactBlock block = CompactBlock.asCompact(b);
+                    for (int i = 0; i < block.size(); i++) {
+                        int binX = block.getBinX(i);
+                        int binY = block.getBinY(i);
+                        float expected = getExpectedValue(df, chr1, binX, binY);
 
-                            float score = (float) Math.exp((Math.log(rec.getCounts() + 1) / Math.log(expected + 1)));
-                            if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                        float score = (float) Math.exp((Math.log(block.getCounts(i) + 1) / Math.log(expected + 1)));
+                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                            setColor(cs.getColor(score));
+                        setColor(cs.getARGB(score));
 
-                            intraPainting(originX, originY, width, height, rec);
-                        }
+                        intraPainting(originX, originY, width, height, binX, binY);
                     }
                 }
             }
@@ -562,24 +645,23 @@ public class HeatmapRenderer {
             float averageCount = (float) zd.getAverageCount();
             float expected = (averageCount > 0 ? averageCount : 1);
             for (Block b : blocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
-
-                    for (ContactRecord rec : recs) {
-                        float score = (float) Math.exp((Math.log(rec.getCounts() + 1) / Math.log(expected + 1)));
-                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                CompactBlock block = CompactBlock.asCompact(b);
+                for (int i = 0; i < block.size(); i++) {
+                    int binX = block.getBinX(i);
+                    int binY = block.getBinY(i);
+                    float score = (float) Math.exp((Math.log(block.getCounts(i) + 1) / Math.log(expected + 1)));
+                    if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                        setColor(cs.getColor(score));
+                    setColor(cs.getARGB(score));
 
-                        interPainting(originX, originY, width, height, rec);
-                    }
+                    interPainting(originX, originY, width, height, binX, binY);
                 }
             }
         }
     }
 
     private void renderExpectedMap(GUIMatrixZoomData zd, ExpectedValueFunction df,
-                                   boolean sameChr, ColorScale cs, int originX, int originY,
+                                   boolean sameChr, ColorLookupTable cs, int originX, int originY,
                                    int width, int height, int chr1) {
         if (sameChr) {
             if (df != null) {
@@ -588,7 +670,7 @@ public class HeatmapRenderer {
                         int binX = px + originX;
                         int binY = py + originY;
                         float expected = getExpectedValue(df, chr1, binX, binY);
-                        setColor(cs.getColor(expected));
+                        setColor(cs.getARGB(expected));
                         directPixelPainting(px, py);
                     }
                 }
@@ -596,7 +678,7 @@ public class HeatmapRenderer {
         } else {
             float averageCount = (float) zd.getAverageCount();
             float expected = (averageCount > 0 ? averageCount : 1);
-            setColor(cs.getColor(expected));
+            setColor(cs.getARGB(expected));
             for (int px = 0; px <= width; px++) {
                 for (int py = 0; py <= height; py++) {
                     directPixelPainting(px, py);
@@ -607,39 +689,37 @@ public class HeatmapRenderer {
 
     private void renderLogObsOverExpVSMap(int chr1, List<Block> blocks, List<Block> ctrlBlocks,
                                           ExpectedValueFunction df, ExpectedValueFunction controlDF,
-                                          GUIMatrixZoomData zd, GUIMatrixZoomData controlZD, ColorScale cs,
+                                          GUIMatrixZoomData zd, GUIMatrixZoomData controlZD, ColorLookupTable cs,
                                           boolean sameChr, int originX, int originY, int width, int height) {
         if (zd != null && df != null) {
             for (Block b : blocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
-                    for (ContactRecord rec : recs) {
-                        float expected = getExpectedValue(df, chr1, rec);
-                        float score = (float) (Math.log(rec.getCounts() + 1) / Math.log(expected + 1));
-                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
-                        setColor(cs.getColor(score));
-
-                        aboveDiagonalPainting(originX, originY, width, height, rec);
-                    }
+                CompactBlock block = CompactBlock.asCompact(b);
+                for (int i = 0; i < block.size(); i++) {
+                    int binX = block.getBinX(i);
+                    int binY = block.getBinY(i);
+                    float expected = getExpectedValue(df, chr1, binX, binY);
+                    float score = (float) (Math.log(block.getCounts(i) + 1) / Math.log(expected + 1));
+                    if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                    setColor(cs.getARGB(score));
+
+                    aboveDiagonalPainting(originX, originY, width, height, binX, binY);
                 }
             }
         }
         if (sameChr && controlZD != null && controlDF != null) {
             for (Block b : ctrlBlocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
-                    for (ContactRecord rec : recs) {
-                        int binX = rec.getBinX();
-                        int binY = rec.getBinY();
-
-                        if (binX != binY) {
-                            float expected = getExpectedValue(controlDF, chr1, rec);
-                            float score = (float) (Math.log(rec.getCounts() + 1) / Math.log(expected + 1));
-                            if (Float.isNaN(score) || Float.isInfinite(score)) continue;
-
-                            setColor(cs.getColor(score));
-                            belowDiagonalPainting(originX, originY, width, height, rec);
-                        }
+                CompactBlock block = CompactBlock.asCompact(b);
+                for (int i = 0; i < block.size(); i++) {
+                    int binX = block.getBinX(i);
+                    int binY = block.getBinY(i);
+
+                    if (binX != binY) {
+                        float expected = getExpectedValue(controlDF, chr1, binX, binY);
+                        float score = (float) (Math.log(block.getCounts(i) + 1) / Math.log(expected + 1));
+                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+
+                        setColor(cs.getARGB(score));
+                        belowDiagonalPainting(originX, originY, width, height, binX, binY);
                     }
                 }
             }
@@ -648,7 +728,7 @@ public class HeatmapRenderer {
 
     private void renderSimpleLogVSMap(List<Block> blocks, List<Block> ctrlBlocks,
                                       GUIMatrixZoomData zd, GUIMatrixZoomData controlZD,
-                                      int originX, int originY, int width, int height, ColorScale cs, boolean sameChr) {
+                                      int originX, int originY, int width, int height, ColorLookupTable cs, boolean sameChr) {
 
         float averageCount = (float) zd.getAverageCount();
         float ctrlAverageCount = (float) controlZD.getAverageCount();
@@ -656,33 +736,33 @@ public class HeatmapRenderer {
 
         if (blocks != null) {
             for (Block b : blocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
-                    for (ContactRecord rec : recs) {
+                CompactBlock block = CompactBlock.asCompact(b);
+                for (int i = 0; i < block.size(); i++) {
+                    int binX = block.getBinX(i);
+                    int binY = block.getBinY(i);
 
-                        float score = (float) Math.log(averageAcrossMapAndControl * (rec.getCounts() / averageCount) + 1);
-                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                    float score = (float) Math.log(averageAcrossMapAndControl * (block.getCounts(i) / averageCount) + 1);
+                    if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                        setColor(cs.getColor(score));
+                    setColor(cs.getARGB(score));
 
-                        aboveDiagonalPainting(originX, originY, width, height, rec);
-                    }
+                    aboveDiagonalPainting(originX, originY, width, height, binX, binY);
                 }
             }
         }
         if (sameChr && ctrlBlocks != null) {
             for (Block b : ctrlBlocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
-                    for (ContactRecord rec : recs) {
+                CompactBlock block = CompactBlock.asCompact(b);
+                for (int i = 0; i < block.size(); i++) {
+                    int binX = block.getBinX(i);
+                    int binY = block.getBinY(i);
 
-                        float score = (float) Math.log(averageAcrossMapAndControl * (rec.getCounts() / ctrlAverageCount) + 1);
-                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                    float score = (float) Math.log(averageAcrossMapAndControl * (block.getCounts(i) / ctrlAverageCount) + 1);
+                    if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                        setColor(cs.getColor(score));
+                    setColor(cs.getARGB(score));
 
-                        belowDiagonalPainting(originX, originY, width, height, rec);
-                    }
+                    belowDiagonalPainting(originX, originY, width, height, binX, binY);
                 }
             }
         }
@@ -691,64 +771,64 @@ public class HeatmapRenderer {
 
     private void renderSimpleVSMap(List<Block> blocks, List<Block> ctrlBlocks,
                                    GUIMatrixZoomData zd, GUIMatrixZoomData controlZD,
-                                   int originX, int originY, int width, int height, ColorScale cs, boolean sameChr) {
+                                   int originX, int originY, int width, int height, ColorLookupTable cs, boolean sameChr) {
         float averageCount = (float) zd.getAverageCount();
         float ctrlAverageCount = (float) controlZD.getAverageCount();
         float averageAcrossMapAndControl = (averageCount + ctrlAverageCount) / 2;
 
         if (blocks != null) {
             for (Block b : blocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
-                    for (ContactRecord rec : recs) {
+                CompactBlock block = CompactBlock.asCompact(b);
+                for (int i = 0; i < block.size(); i++) {
+                    int binX = block.getBinX(i);
+                    int binY = block.getBinY(i);
 
-                        float score = rec.getCounts();
-                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
-                        score = (score / averageCount) * averageAcrossMapAndControl;
+                    float score = block.getCounts(i);
+                    if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                    score = (score / averageCount) * averageAcrossMapAndControl;
 
-                        setColor(cs.getColor(score));
+                    setColor(cs.getARGB(score));
 
-                        aboveDiagonalPainting(originX, originY, width, height, rec);
-                    }
+                    aboveDiagonalPainting(originX, originY, width, height, binX, binY);
                 }
             }
         }
         if (sameChr && ctrlBlocks != null) {
             for (Block b : ctrlBlocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
-                    for (ContactRecord rec : recs) {
+                CompactBlock block = CompactBlock.asCompact(b);
+                for (int i = 0; i < block.size(); i++) {
+                    int binX = block.getBinX(i);
+                    int binY = block.getBinY(i);
 
-                        float score = rec.getCounts();
-                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
-                        score = (score / ctrlAverageCount) * averageAcrossMapAndControl;
+                    float score = block.getCounts(i);
+                    if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                    score = (score / ctrlAverageCount) * averageAcrossMapAndControl;
 
-                        setColor(cs.getColor(score));
-                        belowDiagonalPainting(originX, originY, width, height, rec);
-                    }
+                    setColor(cs.getARGB(score));
+                    belowDiagonalPainting(originX, originY, width, height, binX, binY);
                 }
             }
         }
     }
 
     private void renderLogObservedBaseExpectedMap(int chromosome, List<Block> blocks, ExpectedValueFunction df,
-                                                  GUIMatrixZoomData zd, ColorScale cs, boolean sameChr,
+                                                  GUIMatrixZoomData zd, ColorLookupTable cs, boolean sameChr,
                                                   int originX, int originY, int width, int height) {
         if (sameChr) {
             if (df != null) {
                 for (Block b : blocks) {
-                    Collection<ContactRecord> recs = b.getContactRecords();
-                    if (recs != null) {
-                        for (ContactRecord rec : recs) {
-                            float expected = getExpectedValue(df, chromosome, rec);
+                    CompactBlock block = CompactBlock.asCompact(b);
+                    for (int i = 0; i < block.size(); i++) {
+                        int binX = block.getBinX(i);
+                        int binY = block.getBinY(i);
+                        float expected = getExpectedValue(df, chromosome, binX, binY);
 
-                            float score = (float) (Math.log(rec.getCounts() + 1) / Math.log(expected + 1));
-                            if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                        float score = (float) (Math.log(block.getCounts(i) + 1) / Math.log(expected + 1));
+                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                            setColor(cs.getColor(score));
+                        setColor(cs.getARGB(score));
 
-                            intraPainting(originX, originY, width, height, rec);
-                        }
+                        intraPainting(originX, originY, width, height, binX, binY);
                     }
                 }
             }
@@ -757,16 +837,16 @@ public class HeatmapRenderer {
             float expected = (averageCount > 0 ? averageCount : 1);
 
             for (Block b : blocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
-                    for (ContactRecord rec : recs) {
-                        float score = (float) (Math.log(rec.getCounts() + 1) / Math.log(expected + 1));
-                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                CompactBlock block = CompactBlock.asCompact(b);
+                for (int i = 0; i < block.size(); i++) {
+                    int binX = block.getBinX(i);
+                    int binY = block.getBinY(i);
+                    float score = (float) (Math.log(block.getCounts(i) + 1) / Math.log(expected + 1));
+                    if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                        setColor(cs.getColor(score));
+                    setColor(cs.getARGB(score));
 
-                        interPainting(originX, originY, width, height, rec);
-                    }
+                    interPainting(originX, originY, width, height, binX, binY);
                 }
             }
         }
@@ -774,79 +854,87 @@ public class HeatmapRenderer {
 
     private void renderObservedOverExpectedVSMap(int chromosome, List<Block> blocks, List<Block> ctrlBlocks,
                                                  ExpectedValueFunction df, ExpectedValueFunction controlDF,
-                                                 GUIMatrixZoomData zd, GUIMatrixZoomData controlZD, ColorScale cs,
+                                                 GUIMatrixZoomData zd, GUIMatrixZoomData controlZD, ColorLookupTable cs,
                                                  boolean sameChr, int originX, int originY, int width, int height,
                                                  float pseudoCountObs, float pseudoCountCtrl) {
         if (zd != null && blocks != null && df != null) {
             for (Block b : blocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
-                    for (ContactRecord rec : recs) {
+                CompactBlock block = CompactBlock.asCompact(b);
+                for (int i = 0; i < block.size(); i++) {
+                    int binX = block.getBinX(i);
+                    int binY = block.getBinY(i);
 
-                        float score = rec.getCounts();
-                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                    float score = block.getCounts(i);
+                    if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                        float expected = getExpectedValue(df, chromosome, rec);
-                        score = (rec.getCounts() + pseudoCountObs) / (expected + pseudoCountObs);
+                    float expected = getExpectedValue(df, chromosome, binX, binY);
+                    score = (block.getCounts(i) + pseudoCountObs) / (expected + pseudoCountObs);
 
-                        setColor(cs.getColor(score));
-                        aboveDiagonalPainting(originX, originY, width, height, rec);
-                    }
+                    setColor(cs.getARGB(score));
+                    aboveDiagonalPainting(originX, originY, width, height, binX, binY);
                 }
             }
         }
         if (sameChr && controlZD != null && ctrlBlocks != null && controlDF != null) {
             for (Block b : ctrlBlocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
-                    for (ContactRecord rec : recs) {
+                CompactBlock block = CompactBlock.asCompact(b);
+                for (int i = 0; i < block.size(); i++) {
+                    int binX = block.getBinX(i);
+                    int binY = block.getBinY(i);
 
-                        float score = rec.getCounts();
-                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                    float score = block.getCounts(i);
+                    if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                        int binX = rec.getBinX();
-                        int binY = rec.getBinY();
 
-                        if (binX != binY) {
-                            float expected = getExpectedValue(controlDF, chromosome, rec);
-                            score = (rec.getCounts() + pseudoCountCtrl) / (expected + pseudoCountCtrl);
+                    if (binX != binY) {
+                        float expected = getExpectedValue(controlDF, chromosome, binX, binY);
+                        score = (block.getCounts(i) + pseudoCountCtrl) / (expected + pseudoCountCtrl);
 
-                            setColor(cs.getColor(score));
-                            belowDiagonalPainting(originX, originY, width, height, rec);
-                        }
+                        setColor(cs.getARGB(score));
+                        belowDiagonalPainting(originX, originY, width, height, binX, binY);
                     }
                 }
             }
         }
     }
 
-    private float getExpectedValue(ExpectedValueFunction df, int chromosome, ContactRecord record) {
-        return getExpectedValue(df, chromosome, record.getBinX(), record.getBinY());
-    }
-
     private float getExpectedValue(ExpectedValueFunction df, int chromosome, int binX, int binY) {
         int dist = Math.abs(binX - binY);
-        return (float) df.getExpectedValue(chromosome, dist);
+        return (float) getExpectedValueTable(df, chromosome).getExpectedValue(dist);
+    }
+
+    private ExpectedValueTable getExpectedValueTable(ExpectedValueFunction df, int chromosome) {
+        if (expectedTable != null && expectedTable.isFor(df, chromosome)) {
+            return expectedTable;
+        }
+        if (otherExpectedTable == null || !otherExpectedTable.isFor(df, chromosome)) {
+            otherExpectedTable = ExpectedValueTable.get(df, chromosome, expectedTableLength);
+        }
+        ExpectedValueTable table = otherExpectedTable;
+        otherExpectedTable = expectedTable;
+        expectedTable = table;
+        return table;
     }
 
     private void renderObservedOverExpectedMap(int chromosome, List<Block> blocks, ExpectedValueFunction df,
-                                               GUIMatrixZoomData zd, ColorScale cs, boolean sameChr,
+                                               GUIMatrixZoomData zd, ColorLookupTable cs, boolean sameChr,
                                                int originX, int originY, int width, int height, float pseudoCount) {
         if (sameChr) {
             if (df != null) {
                 for (Block b : blocks) {
-                    Collection<ContactRecord> recs = b.getContactRecords();
-                    if (recs != null) {
-                        for (ContactRecord rec : recs) {
-                            float expected = getExpectedValue(df, chromosome, rec);
+                    CompactBlock block = CompactBlock.asCompact(b);
+                    for (int i = 0; i < block.size(); i++) {
+                        int binX = block.getBinX(i);
+                        int binY = block.getBinY(i);
+                        float expected = getExpectedValue(df, chromosome, binX, binY);
 
-                            float score = (rec.getCounts() + pseudoCount) / (expected + pseudoCount);
-                            if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                        float score = (block.getCounts(i) + pseudoCount) / (expected + pseudoCount);
+                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                            setColor(cs.getColor(score));
+                        setColor(cs.getARGB(score));
 
-                            intraPainting(originX, originY, width, height, rec);
-                        }
+                        actualDiagonalPainting(originX, originY, width, height, binX, binY);
+                        if (binX != binY) actualDiagonalPainting(originX, originY, width, height, binY, binX);
                     }
                 }
             }
@@ -855,78 +943,189 @@ public class HeatmapRenderer {
             float expected = (averageCount > 0 ? averageCount : 1);
 
             for (Block b : blocks) {
-                Collection<ContactRecord> recs = b.getContactRecords();
-                if (recs != null) {
-                    for (ContactRecord rec : recs) {
-                        float score = (rec.getCounts() + pseudoCount) / (expected + pseudoCount);
-                        if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                CompactBlock block = CompactBlock.asCompact(b);
+                for (int i = 0; i < block.size(); i++) {
+                    float score = (block.getCounts(i) + pseudoCount) / (expected + pseudoCount);
+                    if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                        setColor(cs.getColor(score));
+                    setColor(cs.getARGB(score));
 
-                        interPainting(originX, originY, width, height, rec);
-                    }
+                    actualDiagonalPainting(originX, originY, width, height, block.getBinX(i), block.getBinY(i));
                 }
             }
         }
     }
 
 
-    private void renderSimpleMap(List<Block> blocks, ColorScale cs,
+    private void renderSimpleMap(List<Block> blocks, ColorLookupTable cs,
                                  int width, int height, boolean sameChr, int originX, int originY) {
+        if (poolFactor > 1) {
+            renderPooledMap(blocks, cs, width, height, sameChr, originX, originY, false);
+            return;
+        }
         for (Block b : blocks) {
-            Collection<ContactRecord> recs = b.getContactRecords();
-            if (recs != null) {
-                for (ContactRecord rec : recs) {
-                    float score = rec.getCounts();
-                    simplePainting(cs, width, height, sameChr, originX, originY, rec, score);
-                }
+            CompactBlock block = CompactBlock.asCompact(b);
+            for (int i = 0; i < block.size(); i++) {
+                float score = block.getCounts(i);
+                simplePainting(cs, width, height, sameChr, originX, originY, block.getBinX(i), block.getBinY(i), score);
             }
         }
     }
 
-    private void renderSimpleLogMap(List<Block> blocks, ColorScale cs,
+    private void renderSimpleLogMap(List<Block> blocks, ColorLookupTable cs,
                                     int width, int height, boolean sameChr, int originX, int originY) {
+        if (poolFactor > 1) {
+            renderPooledMap(blocks, cs, width, height, sameChr, originX, originY, true);
+            return;
+        }
         for (Block b : blocks) {
-            Collection<ContactRecord> recs = b.getContactRecords();
-            if (recs != null) {
-                for (ContactRecord rec : recs) {
-                    float score = (float) Math.log(1 + rec.getCounts());
-                    simplePainting(cs, width, height, sameChr, originX, originY, rec, score);
+            CompactBlock block = CompactBlock.asCompact(b);
+            for (int i = 0; i < block.size(); i++) {
+                float score = (float) Math.log(1 + block.getCounts(i));
+                simplePainting(cs, width, height, sameChr, originX, originY, block.getBinX(i), block.getBinY(i), score);
+            }
+        }
+    }
+
+    /**
+     * Accumulates the counts of every poolFactor x poolFactor square of bins before coloring it as one pixel,
+     * so the drawing work scales with the pixels of the tile rather than with its bins. Every mode keeps the
+     * values comparable with the color scale of the individual bins, see PixelPooling.
+     */
+    private void renderPooledMap(List<Block> blocks, ColorLookupTable cs, int width, int height, boolean sameChr,
+                                 int originX, int originY, boolean isLog) {
+        final int pooledWidth = (width + poolFactor - 1) / poolFactor;
+        final int pooledHeight = (height + poolFactor - 1) / poolFactor;
+        float[] pooled = new float[pooledWidth * pooledHeight];
+        int[] counts = new int[pooled.length];
+        for (Block b : blocks) {
+            CompactBlock block = CompactBlock.asCompact(b);
+            for (int i = 0; i < block.size(); i++) {
+                float value = block.getCounts(i);
+                if (Float.isNaN(value) || Float.isInfinite(value)) continue;
+                int binX = block.getBinX(i);
+                int binY = block.getBinY(i);
+                poolRecord(pooled, counts, pooledWidth, pooledHeight, binX - originX, binY - originY, value);
+                if (sameChr && binX != binY) {
+                    poolRecord(pooled, counts, pooledWidth, pooledHeight, binY - originX, binX - originY, value);
+                }
+            }
+        }
+
+        final float binsPerPixel = poolFactor * poolFactor;
+        for (int py = 0; py < pooledHeight; py++) {
+            for (int px = 0; px < pooledWidth; px++) {
+                int i = py * pooledWidth + px;
+                if (counts[i] == 0) continue;
+                float score = pooled[i];
+                if (pooling == PixelPooling.AREA_MEAN) {
+                    score /= binsPerPixel;
+                } else if (pooling == PixelPooling.MEAN) {
+                    score /= counts[i];
                 }
+                if (isLog) {
+                    score = (float) Math.log(1 + score);
+                }
+                if (Float.isNaN(score) || Float.isInfinite(score)) continue;
+                setColor(cs.getARGB(score));
+                directPixelPainting(px, py);
+            }
+        }
+    }
+
+    private void poolRecord(float[] pooled, int[] counts, int pooledWidth, int pooledHeight, int dx, int dy, float value) {
+        if (dx < 0 || dy < 0) return;
+        int px = dx / poolFactor;
+        int py = dy / poolFactor;
+        if (px >= pooledWidth || py >= pooledHeight) return;
+        int i = py * pooledWidth + px;
+        if (pooling == PixelPooling.MAX) {
+            if (counts[i] == 0 || value > pooled[i]) {
+                pooled[i] = value;
             }
+        } else {
+            pooled[i] += value;
         }
+        counts[i]++;
     }
 
     private void renderPearsonVS(GUIMatrixZoomData zd, GUIMatrixZoomData controlZD,
                                  ExpectedValueFunction df, ExpectedValueFunction controlDF,
-                                 String key, int originX, int originY,
+                                 ColorScaleKey key, int originX, int originY,
                                  int width, int height) {
-        BasicMatrix bm1 = zd.getPearsons(df);
-        BasicMatrix bm2 = controlZD.getPearsons(controlDF);
+        BasicMatrix bm1 = getPearsons(zd, df);
+        BasicMatrix bm2 = getPearsons(controlZD, controlDF);
         PearsonColorScale pearsonColorScale = colorScaleHandler.getPearsonColorScale();
-        if (pearsonColorScale.doesNotContainKey(key)) {
-            float min = Math.min(bm1.getLowerValue(), bm2.getLowerValue());
-            float max = Math.max(bm1.getUpperValue(), bm2.getUpperValue());
-            pearsonColorScale.setMinMax(key, min, max);
+        synchronized (pearsonColorScale) {
+            if (pearsonColorScale.doesNotContainKey(key)) {
+                float min = Math.min(bm1.getLowerValue(), bm2.getLowerValue());
+                float max = Math.max(bm1.getUpperValue(), bm2.getUpperValue());
+                pearsonColorScale.setMinMax(key, min, max);
+            }
         }
         renderDenseMatrix(bm1, bm2, originX, originY, width, height, pearsonColorScale, key, null);
     }
 
     private void renderPearson(GUIMatrixZoomData zd, ExpectedValueFunction df,
-                               String key, int originX, int originY, int width, int height) {
-        BasicMatrix bm = zd.getPearsons(df);
+                               ColorScaleKey key, int originX, int originY, int width, int height) {
+        BasicMatrix bm = getPearsons(zd, df);
         PearsonColorScale pearsonColorScale = colorScaleHandler.getPearsonColorScale();
-        if (pearsonColorScale.doesNotContainKey(key)) {
-            pearsonColorScale.setMinMax(key, bm.getLowerValue(), bm.getUpperValue());
+        synchronized (pearsonColorScale) {
+            if (pearsonColorScale.doesNotContainKey(key)) {
+                pearsonColorScale.setMinMax(key, bm.getLowerValue(), bm.getUpperValue());
+            }
         }
         renderDenseMatrix(bm, null, originX, originY, width, height, pearsonColorScale, key, null);
     }
 
+    private BasicMatrix getPearsons(GUIMatrixZoomData zd, ExpectedValueFunction df) {
+        long startNanos = System.nanoTime();
+        BasicMatrix bm = zd.getPearsons(df);
+        if (timings != null) {
+            timings.blockFetchNanos += System.nanoTime() - startNanos;
+        }
+        return bm;
+    }
+
+    private ColorLookupTable getColorLookupTable(ColorScaleKey key, MatrixType displayOption, boolean isWholeGenome,
+                                                 List<Block> blocks, float givenMax) {
+        long startNanos = System.nanoTime();
+        ColorLookupTable cs = colorScaleHandler.getColorLookupTable(key, displayOption, isWholeGenome, blocks, givenMax);
+        if (timings != null) {
+            timings.colorLookupNanos += System.nanoTime() - startNanos;
+        }
+        return cs;
+    }
+
+    private ColorLookupTable getColorLookupTable(ColorScaleKey key, MatrixType displayOption, boolean isWholeGenome,
+                                                 List<Block> blocks, List<Block> ctrlBlocks, float givenMax) {
+        long startNanos = System.nanoTime();
+        ColorLookupTable cs = colorScaleHandler.getColorLookupTable(key, displayOption, isWholeGenome, blocks, ctrlBlocks, givenMax);
+        if (timings != null) {
+            timings.colorLookupNanos += System.nanoTime() - startNanos;
+        }
+        return cs;
+    }
+
+    /**
+     * @return null if the view was superseded before or while the blocks were read
+     */
     private List<Block> getTheBlocks(GUIMatrixZoomData zd, int x, int y, int maxX, int maxY, NormalizationType normType, boolean isImportant) {
+        if (viewToken.isSuperseded()) return null;
         if (zd != null) {
             try {
-                return zd.getNormalizedBlocksOverlapping(x, y, maxX, maxY, normType, false);
+                long startNanos = System.nanoTime();
+                List<Block> blocks = zd.getNormalizedBlocksOverlapping(x, y, maxX, maxY, normType, false);
+                if (timings != null) {
+                    timings.blockFetchNanos += System.nanoTime() - startNanos;
+                    for (Block block : blocks) {
+                        timings.records += block instanceof CompactBlock ? ((CompactBlock) block).size()
+                                : block.getContactRecords().size();
+                    }
+                }
+                return viewToken.isSuperseded() ? null : blocks;
             } catch (Exception ee) {
+                if (propagateReadErrors) throw ee;
                 if (JBGlobals.printVerboseComments) ee.printStackTrace();
             }
         }
@@ -946,25 +1145,24 @@ public class HeatmapRenderer {
      * @param key        id for view
      */
     private void renderDenseMatrix(BasicMatrix bm1, BasicMatrix bm2, int originX, int originY, int width, int height,
-                                   PearsonColorScale colorScale, String key, ColorScale cs) {
+                                   PearsonColorScale colorScale, ColorScaleKey key, ColorLookupTable cs) {
         int endX = Math.min(originX + width, bm1.getColumnDimension());
         int endY = Math.min(originY + height, bm1.getRowDimension());
+        ColorLookupTable pearsonLookupTable = colorScale == null ? null : colorScale.getLookupTable(key);
 
         // TODO -- need to check bounds before drawing
         for (int row = originY; row < endY; row++) {
             for (int col = originX; col < endX; col++) {
 
                 float score = bm1.getEntry(row, col);
-                Color color = colorScaleHandler.getDenseMatrixColor(key, score, colorScale, cs);
-                setColor(color);
+                setColor(colorScaleHandler.getDenseMatrixARGB(score, pearsonLookupTable, cs));
 
                 directDensePainting(originX, originY, col, row);
                 // Assuming same chromosome
                 if (col != row) {
                     if (bm2 != null) {
                         float controlScore = bm2.getEntry(row, col);
-                        Color controlColor = colorScaleHandler.getDenseMatrixColor(key, controlScore, colorScale, cs);
-                        setColor(controlColor);
+                        setColor(colorScaleHandler.getDenseMatrixARGB(controlScore, pearsonLookupTable, cs));
                     }
                     directDensePainting(originX, originY, row, col);
                 }
@@ -972,54 +1170,54 @@ public class HeatmapRenderer {
         }
     }
 
-    private void interPainting(int originX, int originY, int width, int height, ContactRecord rec) {
-        aboveDiagonalPainting(originX, originY, width, height, rec);
+    private void interPainting(int originX, int originY, int width, int height, int binX, int binY) {
+        aboveDiagonalPainting(originX, originY, width, height, binX, binY);
     }
 
-    private void simplePainting(ColorScale cs, int width, int height, boolean sameChr, int originX, int originY, ContactRecord rec, float score) {
+    private void simplePainting(ColorLookupTable cs, int width, int height, boolean sameChr, int originX, int originY,
+                                int binX, int binY, float score) {
         if (Float.isNaN(score) || Float.isInfinite(score)) return;
-        setColor(cs.getColor(score));
+        setColor(cs.getARGB(score));
 
-        aboveDiagonalPainting(originX, originY, width, height, rec);
-        if (sameChr) belowDiagonalPainting(originX, originY, width, height, rec);
+        actualDiagonalPainting(originX, originY, width, height, binX, binY);
+        if (sameChr && binX != binY) actualDiagonalPainting(originX, originY, width, height, binY, binX);
     }
 
-    private boolean logPainting(ColorScale cs, float num, float den, float obsExpected, float ctrlExpected) {
+    private boolean logPainting(ColorLookupTable cs, float num, float den, float obsExpected, float ctrlExpected) {
         float score = (float) ((Math.log(num + 1) / Math.log(obsExpected + 1)) / (Math.log(den + 1) / Math.log(ctrlExpected + 1)));
         if (Float.isNaN(score) || Float.isInfinite(score)) return true;
-        setColor(cs.getColor(score));
+        setColor(cs.getARGB(score));
         return false;
     }
 
-    private void ratioPainting(int originX, int originY, int width, int height, ColorScale cs, boolean sameChr, ContactRecord rec, float num, float den) {
+    private void ratioPainting(int originX, int originY, int width, int height, ColorLookupTable cs, boolean sameChr,
+                               int binX, int binY, float num, float den) {
         float score = num / den;
         if (Float.isNaN(score) || Float.isInfinite(score)) return;
-        setColor(cs.getColor(score));
-        intraPainting2(originX, originY, width, height, sameChr, rec);
+        setColor(cs.getARGB(score));
+        intraPainting2(originX, originY, width, height, sameChr, binX, binY);
     }
 
-    private void intraPainting2(int originX, int originY, int width, int height, boolean sameChr, ContactRecord rec) {
-        aboveDiagonalPainting(originX, originY, width, height, rec);
-        if (sameChr) belowDiagonalPainting(originX, originY, width, height, rec);
+    private void intraPainting2(int originX, int originY, int width, int height, boolean sameChr, int binX, int binY) {
+        aboveDiagonalPainting(originX, originY, width, height, binX, binY);
+        if (sameChr) belowDiagonalPainting(originX, originY, width, height, binX, binY);
     }
 
-    private void intraPainting(int originX, int originY, int width, int height, ContactRecord rec) {
-        aboveDiagonalPainting(originX, originY, width, height, rec);
-        belowDiagonalPainting(originX, originY, width, height, rec);
+    private void intraPainting(int originX, int originY, int width, int height, int binX, int binY) {
+        aboveDiagonalPainting(originX, originY, width, height, binX, binY);
+        belowDiagonalPainting(originX, originY, width, height, binX, binY);
     }
 
     @SuppressWarnings("SuspiciousNameCombination")
-    private void belowDiagonalPainting(int originX, int originY, int width, int height, ContactRecord rec) {
-        int binX = rec.getBinX();
-        int binY = rec.getBinY();
+    private void belowDiagonalPainting(int originX, int originY, int width, int height, int binX, int binY) {
         if (binX != binY) {
             actualDiagonalPainting(originX, originY, width, height, binY, binX);
         }
     }
 
     //justPainting(originX, originY, width, height, rec);
-    private void aboveDiagonalPainting(int originX, int originY, int width, int height, ContactRecord rec) {
-        actualDiagonalPainting(originX, originY, width, height, rec.getBinX(), rec.getBinY());
+    private void aboveDiagonalPainting(int originX, int originY, int width, int height, int binX, int binY) {
+        actualDiagonalPainting(originX, originY, width, height, binX, binY);
     }
 
     private void actualDiagonalPainting(int originX, int originY, int width, int height, int binX, int binY) {
@@ -1040,6 +1238,13 @@ public class HeatmapRenderer {
         g.setColor(color);
     }
 
+    protected void setColor(int argb) {
+        if (currentColor == null || currentColor.getRGB() != argb) {
+            currentColor = new Color(argb, true);
+        }
+        g.setColor(currentColor);
+    }
+
     protected void directPixelPainting(int px, int py) {
         g.fillRect(px, py, PIXEL_WIDTH, PIXEL_HEIGHT);
     }
@@ -1059,4 +1264,11 @@ public class HeatmapRenderer {
     public void drawRect(int x, int y, int width, int height) {
         g.drawRect(x, y, width, height);
     }
+
+    public void fillRect(int x, int y, int width, int height, Color color) {
+        Color color0 = g.getColor();
+        g.setColor(color);
+        g.fillRect(x, y, width, height);
+        g.setColor(color0);
+    }
 }
\ No newline at end of file
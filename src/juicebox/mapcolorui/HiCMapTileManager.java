@@ -25,85 +25,565 @@
 package juicebox.mapcolorui;
 
 import javastraw.reader.expected.ExpectedValueFunction;
+import javastraw.reader.type.HiCZoom;
 import javastraw.reader.type.MatrixType;
 import javastraw.reader.type.NormalizationType;
 import juicebox.JBGlobals;
+import juicebox.data.ColorScaleKey;
 import juicebox.data.GUIMatrixZoomData;
 import juicebox.data.HiC;
+import juicebox.data.TileKey;
+import juicebox.data.ViewGeneration;
+import juicebox.data.ViewToken;
 import juicebox.gui.SuperAdapter;
-import org.broad.igv.util.ObjectCache;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 public class HiCMapTileManager {
     private static final int imageTileWidth = 500;
-    private final ObjectCache<String, GeneralTileManager.ImageTile> tileCache = new ObjectCache<>(30);
+    private final TileCache tileCache = new TileCache(JBGlobals.tileCacheMaxBytes);
+    private final DiskTileCache diskTileCache = new DiskTileCache();
+    // a failed tile is retried with exponential backoff, and only left empty after the last attempt
+    private static final int MAX_RENDER_ATTEMPTS = 4;
+    private static final int RETRY_DELAY_MILLIS = 1000;
+    private final Set<TileKey> tilesBeingRendered = new HashSet<>();
+    private final Map<TileKey, RenderFailure> renderFailures = new HashMap<>();
+    private final ExecutorService tileExecutor = Executors.newFixedThreadPool(JBGlobals.numTileRenderThreads, runnable -> {
+        Thread thread = new Thread(runnable, "Tile render");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Tile prefetch");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final List<Future<?>> prefetchTasks = new ArrayList<>();
+    // zoom data that tiles have been requested for, by chromosome pair and resolution
+    private final Map<List<Object>, GUIMatrixZoomData> requestedZds = new HashMap<>();
     private final ColorScaleHandler colorScaleHandler;
+    private int cacheGeneration = 0;
+    // advanced whenever the set of visible tiles changes, or the prefetch prediction does
+    private final ViewGeneration frameGeneration = new ViewGeneration();
+    private final ViewGeneration prefetchGeneration = new ViewGeneration();
+    private volatile Set<TileKey> visibleTiles = Collections.emptySet();
+    private TileKey colorScaleAnchor;
+    private ViewToken frameToken = frameGeneration.current();
 
     public HiCMapTileManager(ColorScaleHandler colorScaleHandler) {
         this.colorScaleHandler = colorScaleHandler;
     }
 
-    public void clearTileCache() {
+    /**
+     * Called with the tiles of every frame before they are requested. Tiles queued for earlier frames that
+     * are no longer visible are dropped before they read any blocks.
+     *
+     * @param colorScaleAnchor the tile whose blocks the color scale of the view is computed from, if it has
+     *                         none yet; the other tiles are held back until it has rendered, so the range
+     *                         does not depend on which tile of the pool happens to finish first
+     */
+    public synchronized void setVisibleTiles(Set<TileKey> keys, TileKey colorScaleAnchor) {
+        this.colorScaleAnchor = colorScaleAnchor;
+        if (!keys.equals(visibleTiles)) {
+            visibleTiles = keys;
+            frameToken = frameGeneration.advance();
+        }
+    }
+
+    /**
+     * A tile is superseded once a later frame no longer shows it
+     */
+    private synchronized ViewToken getVisibleTileToken(TileKey key) {
+        final ViewToken token = frameToken;
+        return () -> token.isSuperseded() && !visibleTiles.contains(key);
+    }
+
+    public synchronized void clearTileCache() {
+        cancelPrefetching();
         tileCache.clear();
+        diskTileCache.clearFingerprints();
+        tilesBeingRendered.clear();
+        renderFailures.clear();
+        requestedZds.clear();
+        cacheGeneration++;
     }
 
+    /**
+     * Returns the tile if it has already been rendered. Otherwise the tile is either rendered right away
+     * (renderSynchronously, e.g. when printing or exporting) or queued on the tile worker pool, in
+     * which case a pending placeholder tile is returned and the parent is repainted once the tile is ready.
+     * With a pool factor above 1 the tile image has one pixel per poolFactor x poolFactor bins.
+     */
     public GeneralTileManager.ImageTile getImageTile(GUIMatrixZoomData zd, GUIMatrixZoomData controlZd, int tileRow, int tileColumn, MatrixType displayOption,
                                                      NormalizationType obsNormalizationType, NormalizationType ctrlNormalizationType,
-                                                     HiC hic, JComponent parent) {
+                                                     HiC hic, JComponent parent, boolean renderSynchronously, int poolFactor) {
+
+        TileKey key = zd.getTileKey(tileRow, tileColumn, displayOption, poolFactor);
+        ColorScaleKey colorScaleKey = zd.getColorScaleKey(displayOption, obsNormalizationType, ctrlNormalizationType);
+        registerZd(zd);
+        GeneralTileManager.ImageTile tile = getCachedTile(key);
+        if (tile != null) {
+            return tile;
+        }
+
+        // the view state is captured on the calling thread, the HiC state may change while the tile renders;
+        // the expected values themselves are only loaded by the task
+        Supplier<ExpectedValueFunction> expectedValues = hic.getExpectedValuesLoader(zd.getZoom());
+        Supplier<ExpectedValueFunction> expectedControlValues = hic.getExpectedControlValuesLoader(zd.getZoom());
+
+        if (renderSynchronously) {
+            Callable<GeneralTileManager.ImageTile> task = createTileTask(zd, controlZd, tileRow, tileColumn,
+                    displayOption, obsNormalizationType, ctrlNormalizationType, expectedValues, expectedControlValues,
+                    ViewToken.NEVER_SUPERSEDED, poolFactor);
+            if (task == null) return null;
+            try {
+                tile = task.call();
+            } catch (Exception e) {
+                System.err.println("Unable to render tile " + key + ": " + e.getMessage());
+                if (JBGlobals.printVerboseComments) e.printStackTrace();
+                return null;
+            }
+            synchronized (this) {
+                tileCache.put(key, tile);
+            }
+            return tile;
+        }
+
+        GeneralTileManager.ImageTile pendingTile = GeneralTileManager.ImageTile.pending(
+                tileColumn * imageTileWidth, tileRow * imageTileWidth, getTileWidth(zd), getTileHeight(zd));
+        final int generation;
+        synchronized (this) {
+            if (isBackingOff(key) || isWaitingForColorScale(key, colorScaleKey, displayOption)
+                    || !tilesBeingRendered.add(key)) {
+                return pendingTile;
+            }
+            generation = cacheGeneration;
+        }
+
+        Callable<GeneralTileManager.ImageTile> task = createTileTask(zd, controlZd, tileRow, tileColumn, displayOption,
+                obsNormalizationType, ctrlNormalizationType, expectedValues, expectedControlValues,
+                getVisibleTileToken(key), poolFactor);
+        if (task == null) {
+            synchronized (this) {
+                tilesBeingRendered.remove(key);
+            }
+            return null;
+        }
+        tileExecutor.submit(() -> renderInBackground(key, task, pendingTile, generation, parent));
+
+        return pendingTile;
+    }
+
+    private void renderInBackground(TileKey key, Callable<GeneralTileManager.ImageTile> task,
+                                    GeneralTileManager.ImageTile pendingTile, int generation, JComponent parent) {
+        GeneralTileManager.ImageTile renderedTile;
+        try {
+            renderedTile = task.call();
+        } catch (CancellationException e) {
+            synchronized (this) {
+                if (generation == cacheGeneration) {
+                    tilesBeingRendered.remove(key);
+                }
+            }
+            // a cancelled prefetch may have held back a tile that is wanted now
+            if (visibleTiles.contains(key)) {
+                SwingUtilities.invokeLater(parent::repaint);
+            }
+            return;
+        } catch (Exception e) {
+            System.err.println("Unable to render tile " + key + ": " + e.getMessage());
+            if (JBGlobals.printVerboseComments) e.printStackTrace();
+            handleRenderFailure(key, pendingTile, generation, parent);
+            return;
+        }
+        synchronized (this) {
+            // a tile rendered before the cache was cleared belongs to a stale view
+            if (generation == cacheGeneration) {
+                tileCache.put(key, renderedTile);
+                tilesBeingRendered.remove(key);
+                renderFailures.remove(key);
+            }
+        }
+        SwingUtilities.invokeLater(parent::repaint);
+    }
+
+    /**
+     * The failure is not cached, so that e.g. a transient error reading a remote file does not leave the tile
+     * blank; the tile is requested again by a repaint once the backoff has passed. Only after the last attempt
+     * is an empty tile cached, until the cache is cleared.
+     */
+    private void handleRenderFailure(TileKey key, GeneralTileManager.ImageTile pendingTile, int generation,
+                                     JComponent parent) {
+        int retryDelay;
+        synchronized (this) {
+            if (generation != cacheGeneration) {
+                return;
+            }
+            tilesBeingRendered.remove(key);
+            RenderFailure failure = renderFailures.computeIfAbsent(key, k -> new RenderFailure());
+            failure.attempts++;
+            if (failure.attempts < MAX_RENDER_ATTEMPTS) {
+                retryDelay = RETRY_DELAY_MILLIS << (failure.attempts - 1);
+                failure.retryAtMillis = System.currentTimeMillis() + retryDelay;
+            } else {
+                retryDelay = 0;
+                renderFailures.remove(key);
+                tileCache.put(key, new GeneralTileManager.ImageTile(null, pendingTile.bLeft, pendingTile.bTop,
+                        pendingTile.width, pendingTile.height));
+            }
+        }
+        if (retryDelay > 0) {
+            Timer retryTimer = new Timer(retryDelay, e -> parent.repaint());
+            retryTimer.setRepeats(false);
+            retryTimer.start();
+        } else {
+            SwingUtilities.invokeLater(parent::repaint);
+        }
+    }
+
+    /**
+     * The anchor tile is requested first in every frame; once it has rendered, or given up, the repaint it
+     * triggers requests the tiles held back here
+     */
+    private synchronized boolean isWaitingForColorScale(TileKey key, ColorScaleKey colorScaleKey,
+                                                        MatrixType displayOption) {
+        if (colorScaleAnchor == null || key.equals(colorScaleAnchor)) return false;
+        return (tilesBeingRendered.contains(colorScaleAnchor) || renderFailures.containsKey(colorScaleAnchor))
+                && colorScaleHandler.isColorScaleMissing(colorScaleKey, displayOption);
+    }
+
+    private synchronized boolean isBackingOff(TileKey key) {
+        RenderFailure failure = renderFailures.get(key);
+        return failure != null && System.currentTimeMillis() < failure.retryAtMillis;
+    }
+
+    /**
+     * Queues a tile that is likely to be needed soon on the low priority prefetch thread, unless it is already
+     * cached or being rendered. Prefetches are dropped by cancelPrefetching() if they have not started yet.
+     * A tile is not prefetched before the color scale of its view exists; that is left to the visible tiles.
+     */
+    public void prefetchImageTile(GUIMatrixZoomData zd, GUIMatrixZoomData controlZd, int tileRow, int tileColumn,
+                                  MatrixType displayOption, NormalizationType obsNormalizationType,
+                                  NormalizationType ctrlNormalizationType, Supplier<ExpectedValueFunction> expectedValues,
+                                  Supplier<ExpectedValueFunction> expectedControlValues, JComponent parent, int poolFactor) {
+        TileKey key = zd.getTileKey(tileRow, tileColumn, displayOption, poolFactor);
+        ColorScaleKey colorScaleKey = zd.getColorScaleKey(displayOption, obsNormalizationType, ctrlNormalizationType);
+        registerZd(zd);
+        synchronized (this) {
+            if (tilesBeingRendered.contains(key) || tileCache.containsKey(key) || isBackingOff(key)
+                    || colorScaleHandler.isColorScaleMissing(colorScaleKey, displayOption)) {
+                return;
+            }
+        }
+
+        Callable<GeneralTileManager.ImageTile> task = createTileTask(zd, controlZd, tileRow, tileColumn, displayOption,
+                obsNormalizationType, ctrlNormalizationType, expectedValues, expectedControlValues,
+                prefetchGeneration.current(), poolFactor);
+        if (task == null) return;
+        GeneralTileManager.ImageTile pendingTile = GeneralTileManager.ImageTile.pending(
+                tileColumn * imageTileWidth, tileRow * imageTileWidth, getTileWidth(zd), getTileHeight(zd));
+
+        synchronized (this) {
+            prefetchTasks.add(prefetchExecutor.submit(() -> {
+                final int generation;
+                synchronized (HiCMapTileManager.this) {
+                    // the tile may have been requested for display since it was queued,
+                    // or the color scale reset
+                    if (tileCache.containsKey(key) || isBackingOff(key)
+                            || colorScaleHandler.isColorScaleMissing(colorScaleKey, displayOption)
+                            || !tilesBeingRendered.add(key)) {
+                        return;
+                    }
+                    generation = cacheGeneration;
+                }
+                renderInBackground(key, task, pendingTile, generation, parent);
+            }));
+        }
+    }
+
+    /**
+     * Runs work that prepares prefetches on the prefetch thread, e.g. resolving the zoom data of another
+     * resolution, which may read the file. Dropped like the prefetches themselves by cancelPrefetching().
+     */
+    public synchronized void submitPrefetchWork(Runnable work) {
+        final ViewToken viewToken = prefetchGeneration.current();
+        prefetchTasks.add(prefetchExecutor.submit(() -> {
+            if (!viewToken.isSuperseded()) {
+                work.run();
+            }
+        }));
+    }
 
-        String key = zd.getTileKey(tileRow, tileColumn, displayOption);
-        GeneralTileManager.ImageTile tile = tileCache.get(key);
+    private synchronized void registerZd(GUIMatrixZoomData zd) {
+        requestedZds.putIfAbsent(getZdKey(zd.getChr1Idx(), zd.getChr2Idx(), zd.getZoom()), zd);
+    }
+
+    /**
+     * Zoom data that tiles were already requested for, without asking the dataset, which may have to read it
+     *
+     * @return null if no tile of the chromosome pair has been requested at the resolution
+     */
+    public synchronized GUIMatrixZoomData getRequestedZd(int chr1Index, int chr2Index, HiCZoom zoom) {
+        return requestedZds.get(getZdKey(chr1Index, chr2Index, zoom));
+    }
+
+    private static List<Object> getZdKey(int chr1Index, int chr2Index, HiCZoom zoom) {
+        return Arrays.asList(chr1Index, chr2Index, zoom.getUnit(), zoom.getBinSize());
+    }
 
-        if (tile == null) {
+    public synchronized void cancelPrefetching() {
+        // prefetches already running stop before their next block read
+        prefetchGeneration.advance();
+        for (Future<?> prefetchTask : prefetchTasks) {
+            prefetchTask.cancel(false);
+        }
+        prefetchTasks.clear();
+    }
 
-            // Image size can be smaller than tile width when zoomed out, or near the edges.
+    /**
+     * Renders every tile in the given range that is not already cached in parallel on the tile worker pool,
+     * and waits for all of them to finish. Used before a synchronous paint so that the tiles are composited
+     * from the cache instead of being rendered one after another.
+     */
+    public void renderMissingTiles(GUIMatrixZoomData zd, GUIMatrixZoomData controlZd, int tTop, int tBottom, int tLeft, int tRight,
+                                   MatrixType displayOption, NormalizationType obsNormalizationType,
+                                   NormalizationType ctrlNormalizationType, HiC hic) {
+        Supplier<ExpectedValueFunction> expectedValues = hic.getExpectedValuesLoader(zd.getZoom());
+        Supplier<ExpectedValueFunction> expectedControlValues = hic.getExpectedControlValuesLoader(zd.getZoom());
+        List<TileKey> keys = new ArrayList<>();
+        List<Callable<GeneralTileManager.ImageTile>> tasks = new ArrayList<>();
+        for (int tileRow = tTop; tileRow <= tBottom; tileRow++) {
+            for (int tileColumn = tLeft; tileColumn <= tRight; tileColumn++) {
+                TileKey key = zd.getTileKey(tileRow, tileColumn, displayOption);
+                if (getCachedTile(key) == null) {
+                    Callable<GeneralTileManager.ImageTile> task = createTileTask(zd, controlZd, tileRow, tileColumn,
+                            displayOption, obsNormalizationType, ctrlNormalizationType, expectedValues, expectedControlValues,
+                            ViewToken.NEVER_SUPERSEDED, 1);
+                    if (task != null) {
+                        keys.add(key);
+                        tasks.add(task);
+                    }
+                }
+            }
+        }
+        if (tasks.size() < 2) return; // nothing to gain, the tile is rendered inline
 
-            long maxBinCountX = zd.getXGridAxis().getBinCount();
-            long maxBinCountY = zd.getYGridAxis().getBinCount();
+        // as on screen, a missing color scale is computed from the first (top left) tile before the others start
+        ColorScaleKey colorScaleKey = zd.getColorScaleKey(displayOption, obsNormalizationType, ctrlNormalizationType);
+        if (colorScaleHandler.isColorScaleMissing(colorScaleKey, displayOption)) {
+            try {
+                GeneralTileManager.ImageTile tile = tasks.remove(0).call();
+                synchronized (this) {
+                    tileCache.put(keys.get(0), tile);
+                }
+            } catch (Exception e) {
+                System.err.println("Unable to render tile " + keys.get(0) + ": " + e.getMessage());
+                if (JBGlobals.printVerboseComments) e.printStackTrace();
+            }
+            keys.remove(0);
+        }
 
-            if (maxBinCountX < 0 || maxBinCountY < 0) return null;
+        try {
+            List<Future<GeneralTileManager.ImageTile>> results = tileExecutor.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    GeneralTileManager.ImageTile tile = results.get(i).get();
+                    synchronized (this) {
+                        tileCache.put(keys.get(i), tile);
+                    }
+                } catch (ExecutionException e) {
+                    System.err.println("Unable to render tile " + keys.get(i) + ": " + e.getCause());
+                    if (JBGlobals.printVerboseComments) e.printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized GeneralTileManager.ImageTile getCachedTile(TileKey key) {
+        if (tilesBeingRendered.contains(key)) {
+            return null;
+        }
+        return tileCache.get(key);
+    }
+
+    /**
+     * @return the tile if it has already been rendered, without queueing it otherwise; null if not rendered or empty
+     */
+    public synchronized GeneralTileManager.ImageTile getRenderedImageTile(GUIMatrixZoomData zd, int tileRow, int tileColumn,
+                                                                          MatrixType displayOption, int poolFactor) {
+        TileKey key = zd.getTileKey(tileRow, tileColumn, displayOption, poolFactor);
+        if (tilesBeingRendered.contains(key)) {
+            return null;
+        }
+        GeneralTileManager.ImageTile tile = tileCache.peek(key);
+        return tile == null || tile.image == null ? null : tile;
+    }
 
-            int imageWidth = maxBinCountX < imageTileWidth ? (int) maxBinCountX : imageTileWidth;
-            int imageHeight = maxBinCountY < imageTileWidth ? (int) maxBinCountY : imageTileWidth;
-            final int bx0 = tileColumn * imageTileWidth;
-            final int by0 = tileRow * imageTileWidth;
+    /**
+     * @return a task rendering the tile into its own image, or null if the zoom data has no bins.
+     * The task throws a CancellationException if the view token is superseded before the tile has rendered,
+     * and passes on any exception reading the blocks; in either case nothing is saved to the disk cache.
+     * Anything that may read a file, like the expected values or the disk cache fingerprint, is left to the task.
+     */
+    private Callable<GeneralTileManager.ImageTile> createTileTask(GUIMatrixZoomData zd, GUIMatrixZoomData controlZd,
+                                                                  int tileRow, int tileColumn, MatrixType displayOption,
+                                                                  NormalizationType obsNormalizationType,
+                                                                  NormalizationType ctrlNormalizationType,
+                                                                  Supplier<ExpectedValueFunction> expectedValues,
+                                                                  Supplier<ExpectedValueFunction> expectedControlValues,
+                                                                  ViewToken viewToken, int poolFactor) {
+        if (zd.getXGridAxis().getBinCount() < 0 || zd.getYGridAxis().getBinCount() < 0) return null;
 
-            Image image = renderDataWithCPU(parent, bx0, by0, imageWidth, imageHeight,
+        // Image size can be smaller than tile width when zoomed out, or near the edges.
+        final int imageWidth = getTileWidth(zd);
+        final int imageHeight = getTileHeight(zd);
+        final int bx0 = tileColumn * imageTileWidth;
+        final int by0 = tileRow * imageTileWidth;
+        // the pooling mode is captured here, changing it clears the tile cache
+        final PixelPooling pooling = poolFactor > 1 ? JBGlobals.pixelPooling : PixelPooling.NONE;
+
+        if (!JBGlobals.useDiskTileCache || SuperAdapter.assemblyModeCurrentlyActive) {
+            return () -> {
+                RenderTimings timings = new RenderTimings();
+                Image image = renderDataWithCPU(bx0, by0, imageWidth, imageHeight,
+                        zd, controlZd, displayOption, obsNormalizationType, ctrlNormalizationType,
+                        expectedValues.get(), expectedControlValues.get(), viewToken, timings, pooling, poolFactor);
+                return new GeneralTileManager.ImageTile(image, bx0, by0, imageWidth, imageHeight, poolFactor, timings);
+            };
+        }
+
+        final String loadedFiles = SuperAdapter.currentlyLoadedMainFiles + "##"
+                + (controlZd == null ? "" : SuperAdapter.currentlyLoadedControlFiles);
+        final ColorScaleKey colorScaleKey = zd.getColorScaleKey(displayOption, obsNormalizationType, ctrlNormalizationType);
+
+        return () -> {
+            RenderTimings timings = new RenderTimings();
+            long startNanos = System.nanoTime();
+            final String fingerprint = diskTileCache.getFingerprint(loadedFiles);
+            if (fingerprint == null) {
+                // e.g. a remote file without any version headers; its tiles may be stale next time
+                BufferedImage image = renderDataWithCPU(bx0, by0, imageWidth, imageHeight,
+                        zd, controlZd, displayOption, obsNormalizationType, ctrlNormalizationType,
+                        expectedValues.get(), expectedControlValues.get(), viewToken, timings, pooling, poolFactor);
+                return new GeneralTileManager.ImageTile(image, bx0, by0, imageWidth, imageHeight, poolFactor, timings);
+            }
+            final String tileKey = fingerprint + zd.getTileKey(tileRow, tileColumn, displayOption, poolFactor).toString()
+                    + (poolFactor > 1 ? "_" + pooling : "")
+                    + "_" + obsNormalizationType + "_" + ctrlNormalizationType + "_";
+            String colorScaleState = getColorScaleStateForDisk(fingerprint, colorScaleKey, displayOption);
+            if (colorScaleState != null) {
+                Image image = diskTileCache.readTile(tileKey + colorScaleState);
+                timings.diskReadNanos = System.nanoTime() - startNanos;
+                if (image != null) {
+                    timings.fromDisk = true;
+                    return new GeneralTileManager.ImageTile(image, bx0, by0, imageWidth, imageHeight, poolFactor, timings);
+                }
+            }
+
+            BufferedImage image = renderDataWithCPU(bx0, by0, imageWidth, imageHeight,
                     zd, controlZd, displayOption, obsNormalizationType, ctrlNormalizationType,
-                    hic.getExpectedValues(), hic.getExpectedControlValues());
+                    expectedValues.get(), expectedControlValues.get(), viewToken, timings, pooling, poolFactor);
 
-            // if (scaleFactor > 0.999 && scaleFactor < 1.001) {
-            tile = new GeneralTileManager.ImageTile(image, bx0, by0);
-            tileCache.put(key, tile);
+            // the color scale of a new view is only known once its first tile has rendered;
+            // don't save the tile if the color scale was changed while it was rendering
+            String renderedColorScaleState = colorScaleHandler.getColorScaleState(colorScaleKey, displayOption);
+            if (image != null && renderedColorScaleState != null
+                    && (colorScaleState == null || colorScaleState.equals(renderedColorScaleState))) {
+                diskTileCache.writeColorScaleState(fingerprint + colorScaleKey, renderedColorScaleState);
+                diskTileCache.writeTile(tileKey + renderedColorScaleState, image);
+            }
+            return new GeneralTileManager.ImageTile(image, bx0, by0, imageWidth, imageHeight, poolFactor, timings);
+        };
+    }
+
+    /**
+     * The current color scale state for the key; if the color scale has not been computed yet in this session,
+     * the state saved with the disk cache is restored so the saved tiles can be used without reading any blocks.
+     */
+    private String getColorScaleStateForDisk(String fingerprint, ColorScaleKey colorScaleKey, MatrixType displayOption) {
+        String colorScaleState = colorScaleHandler.getColorScaleState(colorScaleKey, displayOption);
+        if (colorScaleState == null) {
+            String savedState = diskTileCache.readColorScaleState(fingerprint + colorScaleKey);
+            if (colorScaleHandler.restoreColorScaleState(colorScaleKey, displayOption, savedState)) {
+                colorScaleState = colorScaleHandler.getColorScaleState(colorScaleKey, displayOption);
+            }
         }
-        return tile;
+        return colorScaleState;
+    }
+
+    private int getTileWidth(GUIMatrixZoomData zd) {
+        long maxBinCountX = zd.getXGridAxis().getBinCount();
+        return maxBinCountX < imageTileWidth ? (int) maxBinCountX : imageTileWidth;
     }
 
-    private BufferedImage renderDataWithCPU(JComponent parent, int bx0, int by0, int imageWidth, int imageHeight,
+    private int getTileHeight(GUIMatrixZoomData zd) {
+        long maxBinCountY = zd.getYGridAxis().getBinCount();
+        return maxBinCountY < imageTileWidth ? (int) maxBinCountY : imageTileWidth;
+    }
+
+    public synchronized void setTileCacheMaxBytes(long maxBytes) {
+        tileCache.setMaxBytes(maxBytes);
+    }
+
+    public synchronized String getTileCacheStatistics() {
+        return tileCache.getStatistics();
+    }
+
+    private BufferedImage renderDataWithCPU(int bx0, int by0, int imageWidth, int imageHeight,
                                             GUIMatrixZoomData zd, GUIMatrixZoomData controlZd, MatrixType displayOption,
                                             NormalizationType obsNormalizationType, NormalizationType ctrlNormalizationType,
-                                            ExpectedValueFunction expectedValues, ExpectedValueFunction expectedControlValues) {
-        BufferedImage image = (BufferedImage) parent.createImage(imageWidth, imageHeight);
-        Graphics2D g2D = (Graphics2D) image.getGraphics();
-        if (JBGlobals.isDarkulaModeEnabled) {
-            g2D.setColor(Color.darkGray);
-            g2D.fillRect(0, 0, imageWidth, imageHeight);
+                                            ExpectedValueFunction expectedValues, ExpectedValueFunction expectedControlValues,
+                                            ViewToken viewToken, RenderTimings timings,
+                                            PixelPooling pooling, int poolFactor) {
+        if (viewToken.isSuperseded()) {
+            throw new CancellationException("Superseded");
         }
-
-        HeatmapRenderer renderer = new HeatmapRenderer(g2D, colorScaleHandler);
+        BufferedImage image = RasterHeatmapRenderer.createTileImage((imageWidth + poolFactor - 1) / poolFactor,
+                (imageHeight + poolFactor - 1) / poolFactor);
+        HeatmapRenderer renderer = new RasterHeatmapRenderer(image, colorScaleHandler);
+        renderer.setViewToken(viewToken);
+        renderer.setTimings(timings);
+        renderer.setPooling(pooling, poolFactor);
+        // a failed read is retried by the caller, instead of caching an empty tile
+        renderer.setPropagateReadErrors(true);
         if (!renderer.render(bx0, by0, imageWidth, imageHeight,
                 zd, controlZd, displayOption,
                 obsNormalizationType, ctrlNormalizationType,
                 expectedValues, expectedControlValues, true)) {
+            if (viewToken.isSuperseded()) {
+                throw new CancellationException("Superseded");
+            }
             return null;
         }
         return image;
     }
 
-    public void updateColorSliderFromColorScale(SuperAdapter superAdapter, MatrixType displayOption, String cacheKey) {
-        colorScaleHandler.updateColorSliderFromColorScale(superAdapter, displayOption, cacheKey);
+    public boolean updateColorSliderFromColorScale(SuperAdapter superAdapter, MatrixType displayOption, ColorScaleKey cacheKey) {
+        return colorScaleHandler.updateColorSliderFromColorScale(superAdapter, displayOption, cacheKey);
+    }
+
+    private static class RenderFailure {
+        private int attempts = 0;
+        private long retryAtMillis;
     }
 }
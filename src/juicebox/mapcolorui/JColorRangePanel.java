@@ -27,6 +27,7 @@ package juicebox.mapcolorui;
 import com.jidesoft.swing.JideButton;
 import javastraw.reader.type.MatrixType;
 import juicebox.JBGlobals;
+import juicebox.data.ColorScaleKey;
 import juicebox.data.HiC;
 import juicebox.gui.SuperAdapter;
 import org.broad.igv.ui.FontManager;
@@ -144,7 +145,7 @@ public class JColorRangePanel extends JPanel {
 
             HiC hic = superAdapter.getHiC();
 
-            String key = "";
+            ColorScaleKey key = null;
             try {
                 if (hic != null && hic.getZd() != null && hic.getDisplayOption() != null) {
                     key = HeatmapRenderer.getColorScaleCacheKey(hic.getZd(), hic.getDisplayOption(), hic.getObsNormalizationType(), hic.getControlNormalizationType());
@@ -273,7 +274,7 @@ public class JColorRangePanel extends JPanel {
 
         colorRangeSlider.setLabelTable(labelTable);
 
-        String key = HeatmapRenderer.getColorScaleCacheKey(hic.getZd(), hic.getDisplayOption(), hic.getObsNormalizationType(), hic.getControlNormalizationType());
+        ColorScaleKey key = HeatmapRenderer.getColorScaleCacheKey(hic.getZd(), hic.getDisplayOption(), hic.getObsNormalizationType(), hic.getControlNormalizationType());
         heatmapPanel.setNewDisplayRange(hic.getDisplayOption(), lower, upper, key);
         colorRangeSliderUpdateToolTip(hic.getDisplayOption());
     }
@@ -323,7 +324,7 @@ public class JColorRangePanel extends JPanel {
 
         colorRangeSlider.setLabelTable(labelTable);
 
-        String key = HeatmapRenderer.getColorScaleCacheKey(hic.getZd(), hic.getDisplayOption(), hic.getObsNormalizationType(), hic.getControlNormalizationType());
+        ColorScaleKey key = HeatmapRenderer.getColorScaleCacheKey(hic.getZd(), hic.getDisplayOption(), hic.getObsNormalizationType(), hic.getControlNormalizationType());
         heatmapPanel.setNewDisplayRange(hic.getDisplayOption(), -val, val, key);
         colorRangeSliderUpdateToolTip(hic.getDisplayOption());
     }
@@ -39,7 +39,9 @@ class OEColorScale implements ColorScale {
 
     public static final int defaultMaxOEVal = 5;
     private final MatrixType type;
-    private double threshold;
+    private volatile double threshold;
+    private ColorLookupTable lookupTable;
+    private boolean lookupTableHack, lookupTableHackLinear;
 
     public OEColorScale(MatrixType type) {
         super();
@@ -49,6 +51,27 @@ class OEColorScale implements ColorScale {
 
     private void resetThreshold() {
         threshold = Math.log(defaultMaxOEVal);
+        lookupTable = null;
+    }
+
+    /**
+     * Lookup table equivalent of getColor; rebuilt when the threshold or the color scale hacks change
+     */
+    public synchronized ColorLookupTable getLookupTable() {
+        if (lookupTable == null || lookupTableHack != JBGlobals.HACK_COLORSCALE
+                || lookupTableHackLinear != JBGlobals.HACK_COLORSCALE_LINEAR) {
+            lookupTableHack = JBGlobals.HACK_COLORSCALE;
+            lookupTableHackLinear = JBGlobals.HACK_COLORSCALE_LINEAR;
+            float t = (float) threshold;
+            if (lookupTableHack) {
+                lookupTable = ColorLookupTable.build(0, t, false, v -> getColor((float) v));
+            } else if (lookupTableHackLinear) {
+                lookupTable = ColorLookupTable.build(1 / (1 + t), 1 + t, false, v -> getColor((float) v));
+            } else {
+                lookupTable = ColorLookupTable.build(-t, t, true, v -> getColor((float) v));
+            }
+        }
+        return lookupTable;
     }
 
     public Color getColor(float score) {
@@ -131,12 +154,13 @@ class OEColorScale implements ColorScale {
         }
     }
 
-    public void setThreshold(double max) {
+    public synchronized void setThreshold(double max) {
         if (JBGlobals.HACK_COLORSCALE || JBGlobals.HACK_COLORSCALE_LINEAR) {
             threshold = max;
         } else {
             threshold = Math.log(max);
         }
+        lookupTable = null;
     }
 }
 
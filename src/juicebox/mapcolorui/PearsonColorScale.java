@@ -25,53 +25,74 @@
 
 package juicebox.mapcolorui;
 
+import juicebox.data.ColorScaleKey;
+
 import java.awt.*;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Neva Cherniavsky
  * @since 3/22/12
+ * <p>
+ * Shared by the tile rendering threads; the range of a key is only updated under the lock so
+ * readers never see a partially updated range.
  */
 public class PearsonColorScale {
 
-    private final Map<String, Float> posMinMap = new HashMap<>();
-    private final Map<String, Float> posMaxMap = new HashMap<>();
-    private final Map<String, Float> negMinMap = new HashMap<>();
-    private final Map<String, Float> negMaxMap = new HashMap<>();
+    private final Map<ColorScaleKey, Float> posMinMap = new ConcurrentHashMap<>();
+    private final Map<ColorScaleKey, Float> posMaxMap = new ConcurrentHashMap<>();
+    private final Map<ColorScaleKey, Float> negMinMap = new ConcurrentHashMap<>();
+    private final Map<ColorScaleKey, Float> negMaxMap = new ConcurrentHashMap<>();
+    private final Map<ColorScaleKey, ColorLookupTable> lookupTableMap = new ConcurrentHashMap<>();
 
     public PearsonColorScale() {
     }
 
-    public float getPosMax(String key) {
+    public float getPosMax(ColorScaleKey key) {
         return posMaxMap.get(key);
     }
 
-    public float getPosMin(String key) {
+    public float getPosMin(ColorScaleKey key) {
         return posMinMap.get(key);
     }
 
-    public float getNegMax(String key) {
+    public float getNegMax(ColorScaleKey key) {
         return negMaxMap.get(key);
     }
 
-    public float getNegMin(String key) {
+    public float getNegMin(ColorScaleKey key) {
         return negMinMap.get(key);
     }
 
-    public void setMinMax(String key, float min, float max) {
+    public void setMinMax(ColorScaleKey key, float min, float max) {
         setMinMax(key, min, 0, 0, max);
     }
 
-    public void setMinMax(String key, float negMin, float negMax, float posMin, float posMax) {
+    public synchronized void setMinMax(ColorScaleKey key, float negMin, float negMax, float posMin, float posMax) {
         negMinMap.put(key, negMin);
         negMaxMap.put(key, negMax);
         posMaxMap.put(key, posMax);
         posMinMap.put(key, posMin);
+        lookupTableMap.remove(key);
+    }
 
+    /**
+     * Lookup table equivalent of getColor(key, score), so the four range lookups happen once per key
+     * instead of once per pixel
+     */
+    public synchronized ColorLookupTable getLookupTable(ColorScaleKey key) {
+        ColorLookupTable lookupTable = lookupTableMap.get(key);
+        if (lookupTable == null) {
+            float min = Math.min(getNegMin(key), getPosMin(key));
+            float max = Math.max(getPosMax(key), getNegMax(key));
+            lookupTable = ColorLookupTable.build(min, max, false, v -> getColor(key, (float) v));
+            lookupTableMap.put(key, lookupTable);
+        }
+        return lookupTable;
     }
 
-    public Color getColor(String key, float score) {
+    public Color getColor(ColorScaleKey key, float score) {
 
         if (score > 0) {
             float min = getPosMin(key), max = getPosMax(key);
@@ -113,14 +134,15 @@ public class PearsonColorScale {
         return false;  //To change body of implemented methods use File | Settings | File Templates.
     }
 
-    public boolean doesNotContainKey(String key) {
+    public synchronized boolean doesNotContainKey(ColorScaleKey key) {
         return !negMinMap.containsKey(key) || !posMaxMap.containsKey(key);
     }
 
-    public void resetValues(String key) {
+    public synchronized void resetValues(ColorScaleKey key) {
         negMinMap.remove(key);
         negMaxMap.remove(key);
         posMinMap.remove(key);
         posMaxMap.remove(key);
+        lookupTableMap.remove(key);
     }
 }
\ No newline at end of file
@@ -25,6 +25,7 @@
 package juicebox.mapcolorui;
 
 import juicebox.JBGlobals;
+import juicebox.data.ColorScaleKey;
 import juicebox.gui.SuperAdapter;
 
 import javax.swing.*;
@@ -47,7 +48,7 @@ public class PearsonColorScaleEditor extends JDialog {
 
         setModal(true);
 
-        final String key = superAdapter.getHiC().getColorScaleKey();
+        final ColorScaleKey key = superAdapter.getHiC().getColorScaleKey();
 
         JLabel labelPosMax = new JLabel("Positive Max");
         JLabel labelPosMin = new JLabel("Positive Min");
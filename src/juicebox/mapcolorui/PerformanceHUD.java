@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.mapcolorui;
+
+import org.broad.igv.ui.FontManager;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dev mode overlay showing, for every tile and for the whole frame, how long fetching blocks, computing the
+ * color scale, transforming records into pixels and drawing took, whether the tile came from the cache,
+ * how many records were decoded and the current heap use. Render costs are those measured when each tile
+ * was rendered; a tile served from the cache only costs its draw time in the current frame.
+ */
+class PerformanceHUD {
+
+    private static final Color BACKGROUND_COLOR = new Color(0, 0, 0, 160);
+    private static final Color TEXT_COLOR = Color.white;
+    private static final int LINE_HEIGHT = 14;
+    private static final int MARGIN = 4;
+
+    private final List<TileEntry> tiles = new ArrayList<>();
+    private RenderTimings visibleTileTimings = new RenderTimings();
+    private long frameStartNanos;
+    private long frameNanos;
+    private long drawNanos;
+    private int cacheHits, misses, pending;
+
+    void beginFrame() {
+        tiles.clear();
+        visibleTileTimings = new RenderTimings();
+        drawNanos = 0;
+        cacheHits = 0;
+        misses = 0;
+        pending = 0;
+        frameStartNanos = System.nanoTime();
+    }
+
+    /**
+     * @param timings null if the tile is pending
+     */
+    void addTile(int x, int y, int width, int height, RenderTimings timings, boolean cacheHit, long tileDrawNanos) {
+        tiles.add(new TileEntry(new Rectangle(x, y, width, height), timings, cacheHit, tileDrawNanos));
+        drawNanos += tileDrawNanos;
+        if (timings == null) {
+            pending++;
+        } else {
+            visibleTileTimings.add(timings);
+        }
+        if (cacheHit) {
+            cacheHits++;
+        } else {
+            misses++;
+        }
+    }
+
+    void endFrame() {
+        frameNanos = System.nanoTime() - frameStartNanos;
+    }
+
+    void draw(Graphics2D g) {
+        Font font0 = g.getFont();
+        Color color0 = g.getColor();
+        g.setFont(FontManager.getFont(11));
+
+        for (TileEntry tile : tiles) {
+            drawLines(g, tile.bounds.x + MARGIN, tile.bounds.y + MARGIN, tile.getLines());
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        long usedHeap = runtime.totalMemory() - runtime.freeMemory();
+        List<String> summary = new ArrayList<>();
+        summary.add("Frame " + RenderTimings.toMillis(frameNanos) + " ms, draw " + RenderTimings.toMillis(drawNanos) + " ms");
+        summary.add("Tiles " + tiles.size() + ": " + cacheHits + " hits, " + misses + " misses, " + pending + " pending");
+        summary.add("Visible tiles: fetch " + RenderTimings.toMillis(visibleTileTimings.blockFetchNanos)
+                + " ms, color " + RenderTimings.toMillis(visibleTileTimings.colorLookupNanos)
+                + " ms, transform " + RenderTimings.toMillis(visibleTileTimings.transformNanos)
+                + " ms, disk " + RenderTimings.toMillis(visibleTileTimings.diskReadNanos) + " ms");
+        summary.add("Records " + visibleTileTimings.records + " (" + (visibleTileTimings.getRecordBytes() >> 10) + " KB decoded)");
+        summary.add("Heap " + (usedHeap >> 20) + " MB of " + (runtime.maxMemory() >> 20) + " MB");
+        drawLines(g, MARGIN, MARGIN, summary);
+
+        g.setFont(font0);
+        g.setColor(color0);
+    }
+
+    private static void drawLines(Graphics2D g, int x, int y, List<String> lines) {
+        FontMetrics metrics = g.getFontMetrics();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, metrics.stringWidth(line));
+        }
+        g.setColor(BACKGROUND_COLOR);
+        g.fillRect(x, y, width + 2 * MARGIN, lines.size() * LINE_HEIGHT + MARGIN);
+        g.setColor(TEXT_COLOR);
+        for (int i = 0; i < lines.size(); i++) {
+            g.drawString(lines.get(i), x + MARGIN, y + (i + 1) * LINE_HEIGHT);
+        }
+    }
+
+    private static class TileEntry {
+        final Rectangle bounds;
+        final RenderTimings timings;
+        final boolean cacheHit;
+        final long drawNanos;
+
+        TileEntry(Rectangle bounds, RenderTimings timings, boolean cacheHit, long drawNanos) {
+            this.bounds = bounds;
+            this.timings = timings;
+            this.cacheHit = cacheHit;
+            this.drawNanos = drawNanos;
+        }
+
+        List<String> getLines() {
+            List<String> lines = new ArrayList<>();
+            if (timings == null) {
+                lines.add("pending");
+                return lines;
+            }
+            lines.add((cacheHit ? "hit" : "miss") + (timings.fromDisk ? ", from disk" : ""));
+            if (timings.fromDisk) {
+                lines.add("disk " + RenderTimings.toMillis(timings.diskReadNanos) + " ms");
+            } else {
+                lines.add("fetch " + RenderTimings.toMillis(timings.blockFetchNanos)
+                        + " ms, color " + RenderTimings.toMillis(timings.colorLookupNanos) + " ms");
+                lines.add("transform " + RenderTimings.toMillis(timings.transformNanos) + " ms");
+                lines.add(timings.records + " records");
+            }
+            lines.add("draw " + RenderTimings.toMillis(drawNanos) + " ms");
+            return lines;
+        }
+    }
+}
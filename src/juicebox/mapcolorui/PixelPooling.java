@@ -0,0 +1,76 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.mapcolorui;
+
+import javastraw.reader.type.MatrixType;
+
+/**
+ * How the bins are combined into one screen pixel when the map is zoomed out past one bin per pixel,
+ * see JBGlobals.pixelPooling. Tiles are then rendered at screen resolution instead of one pixel per bin.
+ * The pooled values stay on the scale of single bins, so the color scale of the view still applies:
+ * AREA_MEAN averages over every bin of the square, counting empty bins as zero, while MEAN only averages
+ * the bins that have contacts.
+ */
+public enum PixelPooling {
+    NONE("Off"), AREA_MEAN("Area mean"), MAX("Max"), MEAN("Mean of non-empty bins");
+
+    private static final int imageTileWidth = 500;
+    private final String label;
+
+    PixelPooling(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Only the display options that color the counts of a single map directly can be pooled;
+     * the others fall back to one pixel per bin.
+     */
+    public static boolean isPoolable(MatrixType displayOption) {
+        return displayOption == MatrixType.OBSERVED || displayOption == MatrixType.CONTROL
+                || displayOption == MatrixType.LOG || displayOption == MatrixType.LOGC;
+    }
+
+    /**
+     * @param scaleFactor screen pixels per bin
+     * @return the number of bins along each side of a pooled pixel, 1 if the tiles are not pooled.
+     * Always a divisor of the tile width, so pooled pixels never straddle two tiles.
+     */
+    public static int getPoolFactor(PixelPooling pooling, double scaleFactor, MatrixType displayOption) {
+        if (pooling == NONE || !isPoolable(displayOption) || scaleFactor <= 0) {
+            return 1;
+        }
+        int binsPerPixel = (int) Math.min(imageTileWidth, Math.floor(1 / scaleFactor));
+        for (int poolFactor = binsPerPixel; poolFactor > 1; poolFactor--) {
+            if (imageTileWidth % poolFactor == 0) {
+                return poolFactor;
+            }
+        }
+        return 1;
+    }
+}
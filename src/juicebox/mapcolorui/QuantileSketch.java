@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package juicebox.mapcolorui;
+
+/**
+ * Streaming quantile estimate with bounded memory (a DDSketch): positive values are counted in buckets
+ * whose bounds grow geometrically, so any quantile is returned within RELATIVE_ACCURACY of the exact value.
+ * Sketches can be merged, which lets a view's percentile be computed from sketches cached per block.
+ * When more than MAX_BUCKETS buckets would be needed, the lowest ones are collapsed together, which only
+ * affects the accuracy of the lowest quantiles.
+ */
+class QuantileSketch {
+
+    private static final double RELATIVE_ACCURACY = 0.01;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final int MAX_BUCKETS = 2048;
+
+    private long[] counts = new long[0];
+    private int minIndex = 0;
+    private long zeroCount = 0;
+    private long count = 0;
+
+    private static int getIndex(double value) {
+        return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+    }
+
+    private static double getValue(int index) {
+        // the middle of the bucket, in the relative sense
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    /**
+     * NaN and infinite values are ignored; zero and negative values are counted as zero
+     */
+    void add(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return;
+        count++;
+        if (value <= Double.MIN_NORMAL) {
+            zeroCount++;
+        } else {
+            addToBucket(getIndex(value), 1);
+        }
+    }
+
+    void merge(QuantileSketch other) {
+        count += other.count;
+        zeroCount += other.zeroCount;
+        for (int i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] > 0) {
+                addToBucket(other.minIndex + i, other.counts[i]);
+            }
+        }
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * @param p percentile, in (0, 100] as for DescriptiveStatistics.getPercentile
+     */
+    double getPercentile(double p) {
+        if (count == 0) return Double.NaN;
+        double rank = p / 100.0 * (count - 1);
+        long cumulative = zeroCount;
+        if (cumulative > rank) return 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            if (cumulative > rank) {
+                return getValue(minIndex + i);
+            }
+        }
+        return getValue(minIndex + counts.length - 1);
+    }
+
+    private void addToBucket(int index, long increment) {
+        if (counts.length == 0) {
+            counts = new long[16];
+            minIndex = index;
+        }
+        if (index < minIndex) {
+            int maxIndex = minIndex + counts.length - 1;
+            int newMinIndex = Math.max(index, maxIndex - MAX_BUCKETS + 1);
+            resize(newMinIndex, maxIndex);
+            index = Math.max(index, minIndex);
+        } else if (index >= minIndex + counts.length) {
+            int newMinIndex = Math.max(minIndex, index - MAX_BUCKETS + 1);
+            resize(newMinIndex, index);
+        }
+        counts[Math.max(index, minIndex) - minIndex] += increment;
+    }
+
+    /**
+     * Re-allocate for the index range [newMinIndex, newMaxIndex], collapsing buckets below newMinIndex into it
+     */
+    private void resize(int newMinIndex, int newMaxIndex) {
+        int length = counts.length;
+        while (length < newMaxIndex - newMinIndex + 1) {
+            length *= 2;
+        }
+        length = Math.min(length, MAX_BUCKETS);
+        long[] newCounts = new long[length];
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                int newPosition = Math.max(minIndex + i, newMinIndex) - newMinIndex;
+                newCounts[newPosition] += counts[i];
+            }
+        }
+        counts = newCounts;
+        minIndex = newMinIndex;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.mapcolorui;
+
+import juicebox.JBGlobals;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * HeatmapRenderer that writes packed ARGB pixels straight into the int raster of a tile image,
+ * bypassing the per-pixel Graphics2D.fillRect calls. The Graphics2D based HeatmapRenderer is still
+ * used when drawing onto vector graphics (SVG/PDF export).
+ */
+public class RasterHeatmapRenderer extends HeatmapRenderer {
+
+    private final int[] pixels;
+    private final int imageWidth;
+    private final int imageHeight;
+    private int currentARGB;
+
+    public RasterHeatmapRenderer(BufferedImage image, ColorScaleHandler colorScaleHandler) {
+        super(null, colorScaleHandler);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.imageWidth = image.getWidth();
+        this.imageHeight = image.getHeight();
+    }
+
+    public static BufferedImage createTileImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        if (JBGlobals.isDarkulaModeEnabled) {
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            Arrays.fill(data, Color.darkGray.getRGB());
+        }
+        return image;
+    }
+
+    @Override
+    protected void setColor(Color color) {
+        currentARGB = color.getRGB();
+    }
+
+    @Override
+    protected void setColor(int argb) {
+        currentARGB = argb;
+    }
+
+    @Override
+    protected void directPixelPainting(int px, int py) {
+        if (px > -1 && py > -1 && px < imageWidth && py < imageHeight) {
+            pixels[py * imageWidth + px] = currentARGB;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.mapcolorui;
+
+/**
+ * Where the time went while rendering one tile, for the performance HUD.
+ * Filled in by the thread rendering the tile, and only read once the tile has been handed over.
+ */
+class RenderTimings {
+
+    // binX, binY and counts of a decoded contact record
+    private static final int BYTES_PER_RECORD = 12;
+
+    long blockFetchNanos;
+    long colorLookupNanos;
+    long transformNanos;
+    long diskReadNanos;
+    long records;
+    boolean fromDisk;
+
+    void add(RenderTimings other) {
+        blockFetchNanos += other.blockFetchNanos;
+        colorLookupNanos += other.colorLookupNanos;
+        transformNanos += other.transformNanos;
+        diskReadNanos += other.diskReadNanos;
+        records += other.records;
+    }
+
+    long getRecordBytes() {
+        return records * BYTES_PER_RECORD;
+    }
+
+    static String toMillis(long nanos) {
+        return String.format("%.1f", nanos / 1e6);
+    }
+}
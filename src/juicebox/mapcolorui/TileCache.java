@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.mapcolorui;
+
+import juicebox.data.TileKey;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of rendered heatmap tiles bounded by an approximate memory budget (in bytes) rather than a tile count.
+ * Tiles are evicted in least-recently-used order. Not thread safe; callers synchronize externally.
+ */
+class TileCache {
+
+    private static final long EMPTY_TILE_BYTES = 64;
+
+    private final LinkedHashMap<TileKey, GeneralTileManager.ImageTile> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<TileKey, Long> tileSizes = new HashMap<>();
+    private long maxBytes;
+    private long residentBytes = 0;
+    private long hits = 0, misses = 0, evictions = 0;
+
+    TileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    static long estimateSizeInBytes(GeneralTileManager.ImageTile tile) {
+        Image image = tile.image;
+        if (image instanceof BufferedImage) {
+            DataBuffer buffer = ((BufferedImage) image).getRaster().getDataBuffer();
+            return EMPTY_TILE_BYTES + (long) buffer.getSize() * buffer.getNumBanks()
+                    * (DataBuffer.getDataTypeSize(buffer.getDataType()) / 8);
+        } else if (image != null) {
+            return EMPTY_TILE_BYTES + 4L * tile.getImageWidth() * tile.getImageHeight();
+        }
+        return EMPTY_TILE_BYTES;
+    }
+
+    GeneralTileManager.ImageTile get(TileKey key) {
+        GeneralTileManager.ImageTile tile = tiles.get(key);
+        if (tile == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return tile;
+    }
+
+    /**
+     * Does not count towards the hit statistics or refresh the tile's recency
+     */
+    boolean containsKey(TileKey key) {
+        return tiles.containsKey(key);
+    }
+
+    /**
+     * Refreshes the tile's recency, but does not count towards the hit statistics
+     */
+    GeneralTileManager.ImageTile peek(TileKey key) {
+        return tiles.get(key);
+    }
+
+    void put(TileKey key, GeneralTileManager.ImageTile tile) {
+        remove(key);
+        long size = estimateSizeInBytes(tile);
+        tiles.put(key, tile);
+        tileSizes.put(key, size);
+        residentBytes += size;
+        evictToBudget();
+    }
+
+    private void remove(TileKey key) {
+        if (tiles.remove(key) != null) {
+            residentBytes -= tileSizes.remove(key);
+        }
+    }
+
+    private void evictToBudget() {
+        // always keep the most recent tile, even if it alone exceeds the budget
+        Iterator<TileKey> iterator = tiles.keySet().iterator();
+        while (residentBytes > maxBytes && tiles.size() > 1 && iterator.hasNext()) {
+            TileKey eldest = iterator.next();
+            iterator.remove();
+            residentBytes -= tileSizes.remove(eldest);
+            evictions++;
+        }
+    }
+
+    void clear() {
+        tiles.clear();
+        tileSizes.clear();
+        residentBytes = 0;
+    }
+
+    void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evictToBudget();
+    }
+
+    String getStatistics() {
+        long requests = hits + misses;
+        return "Tiles: " + tiles.size() +
+                "\nResident: " + (residentBytes >> 20) + " MB of " + (maxBytes >> 20) + " MB" +
+                "\nHits: " + hits + "  Misses: " + misses +
+                (requests > 0 ? String.format("  (%.1f%% hit rate)", 100.0 * hits / requests) : "") +
+                "\nEvictions: " + evictions;
+    }
+}
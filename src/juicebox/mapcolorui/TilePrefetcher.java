@@ -0,0 +1,250 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.mapcolorui;
+
+import javastraw.reader.expected.ExpectedValueFunction;
+import javastraw.reader.type.HiCZoom;
+import javastraw.reader.type.MatrixType;
+import javastraw.reader.type.NormalizationType;
+import juicebox.JBGlobals;
+import juicebox.data.ColorScaleKey;
+import juicebox.data.GUIMatrixZoomData;
+import juicebox.data.HiC;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Guesses which tiles will be needed next from the recent pan velocity and zoom direction, and queues them
+ * on the low priority prefetch thread of the tile manager: the ring of tiles just outside the viewport
+ * (leading edge first when panning), then the tiles covering the same region at the next finer and coarser
+ * resolutions. Loading a tile also loads its blocks, so this warms the block cache as well.
+ * Whenever the prediction changes, the prefetches that have not started yet are cancelled.
+ */
+class TilePrefetcher {
+
+    private static final int imageTileWidth = 500;
+    // below this many bins per frame the view is considered to be at rest
+    private static final double MIN_VELOCITY = 0.5;
+
+    private final HiCMapTileManager mapTileManager;
+    private ColorScaleKey lastMotionKey;
+    private int lastBinSize = -1;
+    private double lastOriginX, lastOriginY;
+    private double velocityX = 0, velocityY = 0;
+    private boolean zoomingIn = true;
+    private ColorScaleKey lastViewKey;
+    private int[] lastPrefetchState;
+
+    TilePrefetcher(HiCMapTileManager mapTileManager) {
+        this.mapTileManager = mapTileManager;
+    }
+
+    /**
+     * Called after every frame with the tiles that were just drawn, and the pool factor they were drawn with.
+     * The tiles at the adjacent resolutions cover the same number of bins on screen, so they are pooled alike.
+     */
+    void prefetch(HiC hic, GUIMatrixZoomData zd, GUIMatrixZoomData controlZd, double binOriginX, double binOriginY,
+                  double bRight, double bBottom, int tLeft, int tRight, int tTop, int tBottom, int poolFactor,
+                  JComponent parent) {
+        MatrixType displayOption = hic.getDisplayOption();
+        NormalizationType obsNormalizationType = hic.getObsNormalizationType();
+        NormalizationType ctrlNormalizationType = hic.getControlNormalizationType();
+        ColorScaleKey viewKey = zd.getColorScaleKey(displayOption, obsNormalizationType, ctrlNormalizationType);
+        updateMotion(zd, viewKey, binOriginX, binOriginY);
+
+        int directionX = getDirection(velocityX);
+        int directionY = getDirection(velocityY);
+
+        int[] prefetchState = {tLeft, tRight, tTop, tBottom, directionX, directionY, zoomingIn ? 1 : 0, poolFactor};
+        if (viewKey.equals(lastViewKey) && Arrays.equals(prefetchState, lastPrefetchState)) {
+            return;
+        }
+        lastViewKey = viewKey;
+        lastPrefetchState = prefetchState;
+        mapTileManager.cancelPrefetching();
+
+        try {
+            Supplier<ExpectedValueFunction> expectedValues = hic.getExpectedValuesLoader(zd.getZoom());
+            Supplier<ExpectedValueFunction> expectedControlValues = hic.getExpectedControlValuesLoader(zd.getZoom());
+            for (int[] tile : getRingTiles(zd, tLeft, tRight, tTop, tBottom, directionX, directionY)) {
+                mapTileManager.prefetchImageTile(zd, controlZd, tile[0], tile[1], displayOption, obsNormalizationType,
+                        ctrlNormalizationType, expectedValues, expectedControlValues, parent, poolFactor);
+            }
+
+            if (hic.isWholeGenome() || hic.isInPearsonsMode()) {
+                return;
+            }
+
+            HiCZoom finerZoom = getAdjacentZoom(hic, zd.getZoom(), 1);
+            HiCZoom coarserZoom = getAdjacentZoom(hic, zd.getZoom(), -1);
+            HiCZoom[] adjacentZooms = zoomingIn ? new HiCZoom[]{finerZoom, coarserZoom} : new HiCZoom[]{coarserZoom, finerZoom};
+            for (HiCZoom zoom : adjacentZooms) {
+                if (zoom != null) {
+                    // looking up the zoom data of another resolution may read the file, so not on the EDT
+                    Supplier<ExpectedValueFunction> zoomExpectedValues = hic.getExpectedValuesLoader(zoom);
+                    Supplier<ExpectedValueFunction> zoomExpectedControlValues = hic.getExpectedControlValuesLoader(zoom);
+                    int binSize = zd.getZoom().getBinSize();
+                    mapTileManager.submitPrefetchWork(() -> prefetchAtZoom(hic, zoom, binSize, binOriginX, binOriginY,
+                            bRight, bBottom, displayOption, obsNormalizationType, ctrlNormalizationType,
+                            zoomExpectedValues, zoomExpectedControlValues, poolFactor, parent));
+                }
+            }
+        } catch (Exception e) {
+            if (JBGlobals.printVerboseComments) {
+                System.err.println("Unable to prefetch tiles: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Forget the last prediction, e.g. after the tile cache was cleared, so the next frame prefetches again
+     */
+    void reset() {
+        lastViewKey = null;
+    }
+
+    private void updateMotion(GUIMatrixZoomData zd, ColorScaleKey viewKey, double binOriginX, double binOriginY) {
+        int binSize = zd.getZoom().getBinSize();
+        if (viewKey.equals(lastMotionKey)) {
+            // exponentially smoothed, in bins per frame
+            velocityX = 0.5 * velocityX + 0.5 * (binOriginX - lastOriginX);
+            velocityY = 0.5 * velocityY + 0.5 * (binOriginY - lastOriginY);
+        } else {
+            velocityX = 0;
+            velocityY = 0;
+            if (lastBinSize > 0 && binSize != lastBinSize) {
+                zoomingIn = binSize < lastBinSize;
+            }
+        }
+        lastMotionKey = viewKey;
+        lastBinSize = binSize;
+        lastOriginX = binOriginX;
+        lastOriginY = binOriginY;
+    }
+
+    private static int getDirection(double velocity) {
+        if (Math.abs(velocity) < MIN_VELOCITY) {
+            return 0;
+        }
+        return velocity > 0 ? 1 : -1;
+    }
+
+    /**
+     * Tiles bordering the visible ones, ordered so the ones in the direction of motion come first.
+     * When panning, the trailing edge is skipped since it is moving out of view.
+     */
+    private List<int[]> getRingTiles(GUIMatrixZoomData zd, int tLeft, int tRight, int tTop, int tBottom,
+                                     int directionX, int directionY) {
+        long maxBinCountX = zd.getXGridAxis().getBinCount();
+        long maxBinCountY = zd.getYGridAxis().getBinCount();
+        double centerRow = (tTop + tBottom) / 2.0;
+        double centerColumn = (tLeft + tRight) / 2.0;
+        boolean isPanning = directionX != 0 || directionY != 0;
+
+        List<int[]> ring = new ArrayList<>();
+        for (int tileRow = tTop - 1; tileRow <= tBottom + 1; tileRow++) {
+            for (int tileColumn = tLeft - 1; tileColumn <= tRight + 1; tileColumn++) {
+                boolean isVisible = tileRow >= tTop && tileRow <= tBottom && tileColumn >= tLeft && tileColumn <= tRight;
+                if (isVisible || tileRow < 0 || tileColumn < 0
+                        || (long) tileRow * imageTileWidth >= maxBinCountY || (long) tileColumn * imageTileWidth >= maxBinCountX) {
+                    continue;
+                }
+                double alignment = (tileColumn - centerColumn) * directionX + (tileRow - centerRow) * directionY;
+                if (isPanning && alignment < 0) {
+                    continue;
+                }
+                ring.add(new int[]{tileRow, tileColumn});
+            }
+        }
+        ring.sort(Comparator.comparingDouble(tile ->
+                -((tile[1] - centerColumn) * directionX + (tile[0] - centerRow) * directionY)));
+        return ring;
+    }
+
+    /**
+     * @param step +1 for the next finer resolution, -1 for the next coarser one
+     * @return null if there is no such resolution
+     */
+    private HiCZoom getAdjacentZoom(HiC hic, HiCZoom zoom, int step) {
+        List<HiCZoom> zooms = zoom.getUnit() == HiCZoom.HiCUnit.BP ? hic.getDataset().getBpZooms()
+                : hic.getDataset().getFragZooms();
+        for (int i = 0; i < zooms.size(); i++) {
+            if (zooms.get(i).getBinSize() == zoom.getBinSize()) {
+                int adjacent = i + step;
+                return adjacent >= 0 && adjacent < zooms.size() ? zooms.get(adjacent) : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Prefetch the tiles that would be visible at the given zoom, centered on the current view at the same scale.
+     * Runs on the prefetch thread.
+     */
+    private void prefetchAtZoom(HiC hic, HiCZoom zoom, int currentBinSize, double binOriginX, double binOriginY,
+                                double bRight, double bBottom, MatrixType displayOption,
+                                NormalizationType obsNormalizationType, NormalizationType ctrlNormalizationType,
+                                Supplier<ExpectedValueFunction> expectedValues,
+                                Supplier<ExpectedValueFunction> expectedControlValues, int poolFactor, JComponent parent) {
+        GUIMatrixZoomData zd, controlZd;
+        try {
+            zd = hic.getZd(zoom);
+            if (zd == null) return;
+            controlZd = hic.getControlZd(zoom);
+        } catch (Exception e) {
+            if (JBGlobals.printVerboseComments) {
+                System.err.println("Unable to prefetch tiles: " + e.getMessage());
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        double ratio = (double) currentBinSize / zoom.getBinSize();
+        double halfWidth = (bRight - binOriginX) / 2;
+        double halfHeight = (bBottom - binOriginY) / 2;
+        double centerX = (binOriginX + halfWidth) * ratio;
+        double centerY = (binOriginY + halfHeight) * ratio;
+
+        long maxBinCountX = zd.getXGridAxis().getBinCount();
+        long maxBinCountY = zd.getYGridAxis().getBinCount();
+        int tLeft = (int) Math.max(0, (centerX - halfWidth) / imageTileWidth);
+        int tRight = (int) Math.min((maxBinCountX - 1) / imageTileWidth, (centerX + halfWidth) / imageTileWidth);
+        int tTop = (int) Math.max(0, (centerY - halfHeight) / imageTileWidth);
+        int tBottom = (int) Math.min((maxBinCountY - 1) / imageTileWidth, (centerY + halfHeight) / imageTileWidth);
+
+        for (int tileRow = tTop; tileRow <= tBottom; tileRow++) {
+            for (int tileColumn = tLeft; tileColumn <= tRight; tileColumn++) {
+                mapTileManager.prefetchImageTile(zd, controlZd, tileRow, tileColumn, displayOption, obsNormalizationType,
+                        ctrlNormalizationType, expectedValues, expectedControlValues, parent, poolFactor);
+            }
+        }
+    }
+}
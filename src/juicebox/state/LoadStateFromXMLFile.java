@@ -25,6 +25,7 @@
 package juicebox.state;
 
 import javastraw.reader.type.MatrixType;
+import juicebox.data.DatasetOpener;
 import juicebox.data.HiC;
 import juicebox.gui.SuperAdapter;
 import juicebox.track.*;
@@ -137,12 +138,24 @@ public class LoadStateFromXMLFile {
         String mainMapNames = temp[0];
 
         List<String> urls = Arrays.asList(mapURLs.split("\\#\\#"));
-        superAdapter.unsafeLoadWithTitleFix(urls, false, mainMapNames, true);
+        boolean hasControl = !controlURLs.contains("null") && temp.length > 1;
+        List<String> ctrlURLs = Arrays.asList(controlURLs.split("\\#\\#"));
+        if (hasControl) {
+            // read the control map while the main map is being read
+            DatasetOpener.openInBackground(ctrlURLs.get(0));
+        }
+        try {
+            superAdapter.unsafeLoadWithTitleFix(urls, false, mainMapNames, true);
 
-        if (!controlURLs.contains("null") && temp.length > 1) {
-            String ctrlMapNames = temp[1].substring(0, temp[1].length() - 1);
-            List<String> ctrlURLs = Arrays.asList(controlURLs.split("\\#\\#"));
-            superAdapter.unsafeLoadWithTitleFix(ctrlURLs, true, ctrlMapNames, true);
+            if (hasControl) {
+                String ctrlMapNames = temp[1].substring(0, temp[1].length() - 1);
+                superAdapter.unsafeLoadWithTitleFix(ctrlURLs, true, ctrlMapNames, true);
+            }
+        } finally {
+            if (hasControl) {
+                // a control that was never picked up, e.g. because the main map failed, must not linger
+                DatasetOpener.discard(ctrlURLs.get(0));
+            }
         }
 
         hic.unsafeSetLocation(chrXName, chrYName, unitName, binSize, xOrigin, yOrigin, scalefactor, HiC.ZoomCallType.DIRECT, true);